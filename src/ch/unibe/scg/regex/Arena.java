@@ -0,0 +1,68 @@
+package ch.unibe.scg.regex;
+
+import java.util.Arrays;
+
+/**
+ * The committed values of all memory cells of one matcher, as singly-linked lists of ints. A node
+ * is an index into {@link #values} and {@link #next}. Nodes are never changed once pushed, so
+ * lists can share their tails. Not threadsafe.
+ */
+final class Arena {
+  private static final int INITIAL_CAPACITY = 64;
+
+  int[] values = new int[INITIAL_CAPACITY];
+  /** The node after each node. -1 if it is the last. */
+  int[] next = new int[INITIAL_CAPACITY];
+  int size = 0;
+
+  /** @return the new node, holding {@code value}, followed by {@code next}. */
+  int push(final int value, final int next) {
+    if (size == values.length) {
+      values = Arrays.copyOf(values, 2 * size);
+      this.next = Arrays.copyOf(this.next, 2 * size);
+    }
+    values[size] = value;
+    this.next[size] = next;
+    return size++;
+  }
+
+  /** Drop all nodes. Keeps the arrays for reuse. */
+  void clear() {
+    size = 0;
+  }
+
+  /** @return the number of nodes in the list starting at {@code node}. */
+  int length(int node) {
+    int ret = 0;
+    for (; node >= 0; node = next[node]) {
+      ret++;
+    }
+    return ret;
+  }
+
+  /**
+   * Copy the lists starting at {@code heads} into one array, list after list.
+   *
+   * @param offsets is filled so that list {@code i} is at {@code [offsets[i], offsets[i + 1])}.
+   *        Must have room for {@code heads.length + 1} entries.
+   * @return the values of all lists.
+   */
+  int[] flatten(final int[] heads, final int[] offsets) {
+    int total = 0;
+    for (int i = 0; i < heads.length; i++) {
+      offsets[i] = total;
+      total += length(heads[i]);
+    }
+    offsets[heads.length] = total;
+
+    final int[] ret = new int[total];
+    int pos = 0;
+    for (int head : heads) {
+      for (int node = head; node >= 0; node = next[node]) {
+        ret[pos] = values[node];
+        pos++;
+      }
+    }
+    return ret;
+  }
+}
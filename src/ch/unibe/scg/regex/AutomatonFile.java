@@ -0,0 +1,516 @@
+package ch.unibe.scg.regex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.unibe.scg.regex.Instruction.ClosingCommitInstruction;
+import ch.unibe.scg.regex.Instruction.OpeningCommitInstruction;
+import ch.unibe.scg.regex.Instruction.ReorderInstruction;
+import ch.unibe.scg.regex.Instruction.SetInstruction;
+import ch.unibe.scg.regex.TDFATransitionTable.Builder.Entry;
+
+/**
+ * Saves complete automata to files, and loads them back without parsing the regex or
+ * determinizing. Loading maps the file, but still builds an object per state and transition: it
+ * saves the work of determinizing, not the allocation of the table.
+ *
+ * <p>A file starts with the big-endian ints {@link #MAGIC} and {@link #VERSION}. Then follow
+ * the automaton for matching, 1 or 0 for whether an automaton for searching follows, and that
+ * automaton. Chars are big-endian 2-byte chars. All other numbers are varints: zigzag encoded,
+ * so that -1 is small, then 7 bits per byte, least significant first, with the high bit set on
+ * all bytes but the last. Most numbers take a single byte then, and files a third to half of the
+ * size that ints would take. An automaton is:
+ *
+ * <pre>
+ * regex:       string
+ * literals:    exact, prefix, suffix, required, as strings. See {@link Literals}.
+ * classes:     count, (from, to) per class, ascending
+ * registers:   count of memory cells, each named at least once in what follows
+ * parentOf:    length, values
+ * start:       instructions
+ * states:      count, per state: (final history count, registers) or -1, then the
+ *              state without its prefix threads, -1 if none, -2 if not final
+ * transitions: count, per transition: state, class, new state, register count, instructions
+ * </pre>
+ *
+ * Strings are a length, -1 for null, then chars. Instructions are a count, then per instruction
+ * an opcode and its registers, as in {@link Program}, except that commits are
+ * {@link #OPENING_COMMIT} or {@link #CLOSING_COMMIT}.
+ *
+ * <p>Registers are renumbered on saving, densely, in the order they are first named. So a file
+ * can't name more cells than it has bytes, and loading checks that it doesn't.
+ */
+public final class AutomatonFile {
+  /** "TDFA" */
+  static final int MAGIC = 0x54444641;
+  /** Changes whenever the layout does. Files of other versions can't be loaded. */
+  static final int VERSION = 3;
+
+  static final int SET = Program.SET;
+  static final int REORDER = Program.REORDER;
+  static final int OPENING_COMMIT = 2;
+  static final int CLOSING_COMMIT = 3;
+
+  private static final int NOT_FINAL = -2;
+
+  private AutomatonFile() {} // Not instantiable.
+
+  /**
+   * Save {@code interpreter} to {@code file}. The automaton for searching is saved, too, if it is
+   * complete.
+   *
+   * @param interpreter must be complete. See {@link TDFAInterpreter#compileEagerly}.
+   */
+  public static void save(TDFAInterpreter interpreter, Path file) throws IOException {
+    if (!interpreter.isComplete()) {
+      throw new IllegalArgumentException(
+          "Only complete automata can be saved. Compile them eagerly, with a large enough budget.");
+    }
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    write(interpreter, out);
+    final TDFAInterpreter searcher = interpreter.existingSearcher();
+    if (searcher != null && searcher.isComplete()) {
+      writeVarint(out, 1);
+      write(searcher, out);
+    } else {
+      writeVarint(out, 0);
+    }
+    out.flush();
+    Files.write(file, bytes.toByteArray());
+  }
+
+  private static void write(TDFAInterpreter interpreter, DataOutputStream out) throws IOException {
+    synchronized (interpreter) {
+      write(interpreter.regex, out);
+      final Literals literals = interpreter.literals;
+      write(literals.exact, out);
+      write(literals.prefix, out);
+      write(literals.suffix, out);
+      write(literals.required, out);
+
+      final CharClassifier classes = interpreter.classifier;
+      writeVarint(out, classes.size());
+      for (int c = 0; c < classes.size(); c++) {
+        out.writeChar(classes.range(c).getFrom());
+        out.writeChar(classes.range(c).getTo());
+      }
+
+      final TDFATransitionTable.Builder builder = interpreter.tdfaBuilder;
+      final List<DFAState> states = builder.mapping.deoptimized;
+      final List<Entry> transitions = builder.transitions();
+      final Cells cells = new Cells(interpreter.registerCount());
+      cells.number(interpreter.startInstructions);
+      for (DFAState state : states) {
+        if (state.finalHistories != null) {
+          for (History h : state.finalHistories) {
+            cells.of(h.register);
+          }
+        }
+      }
+      for (Entry e : transitions) {
+        cells.number(e.instructions);
+      }
+
+      writeVarint(out, cells.count);
+      writeVarint(out, interpreter.parentOf.length);
+      for (int p : interpreter.parentOf) {
+        writeVarint(out, p);
+      }
+      write(interpreter.startInstructions, cells, out);
+
+      writeVarint(out, states.size());
+      for (DFAState state : states) {
+        if (state.finalHistories == null) {
+          writeVarint(out, -1);
+          writeVarint(out, NOT_FINAL);
+          continue;
+        }
+        writeVarint(out, state.finalHistories.size());
+        for (History h : state.finalHistories) {
+          writeVarint(out, cells.of(h.register));
+        }
+        final DFAState matching = interpreter.withoutPrefix(state);
+        writeVarint(out, matching == null ? -1 : builder.mapping.mapping.get(matching));
+      }
+
+      writeVarint(out, transitions.size());
+      for (Entry e : transitions) {
+        writeVarint(out, e.state);
+        writeVarint(out, classes.classOf(e.from));
+        writeVarint(out, e.newState);
+        writeVarint(out, cells.needed(e.instructions));
+        write(e.instructions, cells, out);
+      }
+    }
+  }
+
+  /** The registers of an automaton, numbered densely in the order they are first named. */
+  private static final class Cells {
+    /** The cell of each register, or -1 if it wasn't named yet. */
+    private final int[] cell;
+    int count = 0;
+
+    Cells(int registerCount) {
+      cell = new int[registerCount];
+      Arrays.fill(cell, -1);
+    }
+
+    /** @return the cell of {@code register}, which is numbered if it is new. -1 for -1. */
+    int of(int register) {
+      if (register < 0) {
+        return -1;
+      }
+      if (cell[register] < 0) {
+        cell[register] = count++;
+      }
+      return cell[register];
+    }
+
+    void number(Instruction[] instructions) {
+      for (Instruction i : instructions) {
+        for (int r : registers(i)) {
+          of(r);
+        }
+      }
+    }
+
+    /** @return the number of cells that {@code instructions} may write. They must be numbered. */
+    int needed(Instruction[] instructions) {
+      int ret = 0;
+      for (Instruction i : instructions) {
+        for (int r : registers(i)) {
+          ret = Math.max(ret, cell[r] + 1);
+        }
+      }
+      return ret;
+    }
+  }
+
+  /** @return the opcode of {@code i}. See {@link AutomatonFile}. */
+  private static int opcode(Instruction i) {
+    if (i instanceof SetInstruction) {
+      return SET;
+    } else if (i instanceof ReorderInstruction) {
+      return REORDER;
+    } else if (i instanceof OpeningCommitInstruction) {
+      return OPENING_COMMIT;
+    } else if (i instanceof ClosingCommitInstruction) {
+      return CLOSING_COMMIT;
+    }
+    throw new AssertionError("Unknown instruction " + i);
+  }
+
+  /** @return the registers that {@code i} names, in the order they are saved. */
+  private static int[] registers(Instruction i) {
+    switch (opcode(i)) {
+      case SET:
+        return new int[] { ((SetInstruction) i).register };
+      case REORDER:
+        return new int[] { ((ReorderInstruction) i).toRegister,
+            ((ReorderInstruction) i).fromRegister };
+      case OPENING_COMMIT:
+        return new int[] { ((OpeningCommitInstruction) i).register };
+      default:
+        return new int[] { ((ClosingCommitInstruction) i).register };
+    }
+  }
+
+  private static void write(Instruction[] instructions, Cells cells, DataOutputStream out)
+      throws IOException {
+    writeVarint(out, instructions.length);
+    for (Instruction i : instructions) {
+      writeVarint(out, opcode(i));
+      for (int r : registers(i)) {
+        writeVarint(out, cells.of(r));
+      }
+      if (i instanceof SetInstruction) {
+        writeVarint(out, ((SetInstruction) i).offset);
+      }
+    }
+  }
+
+  /** Write {@code s} as a string. See {@link AutomatonFile}. */
+  private static void write(String s, DataOutputStream out) throws IOException {
+    if (s == null) {
+      writeVarint(out, -1);
+      return;
+    }
+    writeVarint(out, s.length());
+    out.writeChars(s);
+  }
+
+  /** Write {@code n} as a varint. See {@link AutomatonFile}. */
+  private static void writeVarint(DataOutputStream out, int n) throws IOException {
+    int zigzag = (n << 1) ^ (n >> 31);
+    while ((zigzag & ~0x7F) != 0) {
+      out.writeByte(zigzag & 0x7F | 0x80);
+      zigzag >>>= 7;
+    }
+    out.writeByte(zigzag);
+  }
+
+  /**
+   * Load an automaton saved by {@link #save}. It is complete, and runs compiled to bytecode if the
+   * JVM allows. It can search only if its automaton for searching was saved, too.
+   *
+   * @throws IOException if the file can't be read, or isn't an automaton file, or is corrupt.
+   *         Every count, state, class and register in the file is checked before it is used.
+   */
+  public static TDFAInterpreter load(Path file) throws IOException {
+    final ByteBuffer bytes;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      bytes = channel.map(MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (bytes.remaining() < 8 || bytes.getInt() != MAGIC) {
+      throw new IOException(file + " is not an automaton file.");
+    }
+    final int version = bytes.getInt();
+    if (version != VERSION) {
+      throw new IOException(file + " has version " + version + ", but only version " + VERSION
+          + " can be loaded.");
+    }
+
+    final Reader in = new Reader(file, bytes);
+    final Section main = in.section();
+    TDFAInterpreter searcher = null;
+    if (in.index(2, "searcher flag") == 1) {
+      searcher = in.section().interpreter(null, false);
+    }
+    in.end();
+    return main.interpreter(searcher, true);
+  }
+
+  /** An automaton, as read from a file. */
+  private static final class Section {
+    String regex;
+    Literals literals;
+    TDFATransitionTable.Builder builder;
+    int registerCount;
+    Instruction[] startInstructions;
+    int[] parentOf;
+    final Map<DFAState, DFAState> withoutPrefix = new HashMap<>();
+
+    /** @param compile true for the automaton for matching, false for the one for searching. */
+    TDFAInterpreter interpreter(TDFAInterpreter searcher, boolean compile) {
+      return new TDFAInterpreter(regex, literals, builder, registerCount, startInstructions, parentOf,
+          withoutPrefix, searcher, compile);
+    }
+  }
+
+  /**
+   * Reads the numbers of a file. Rejects the file as corrupt at the first value out of range,
+   * before it is used, so that corrupt files can't make the automaton index out of bounds.
+   */
+  private static final class Reader {
+    private final Path file;
+    private final ByteBuffer in;
+
+    Reader(Path file, ByteBuffer in) {
+      this.file = file;
+      this.in = in;
+    }
+
+    IOException corrupt(String why) {
+      return new IOException(file + " is corrupt: " + why + ".");
+    }
+
+    /** @return the next varint. See {@link AutomatonFile}. */
+    int next() throws IOException {
+      int zigzag = 0;
+      for (int shift = 0; true; shift += 7) {
+        if (!in.hasRemaining()) {
+          throw corrupt("it ends early");
+        }
+        if (shift > 28) {
+          throw corrupt("a number has more than 32 bits");
+        }
+        final byte b = in.get();
+        zigzag |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+      }
+    }
+
+    char nextChar() throws IOException {
+      if (in.remaining() < 2) {
+        throw corrupt("it ends early");
+      }
+      return in.getChar();
+    }
+
+    /** @return a value that is at least {@code min}, and less than {@code max}. */
+    int range(int min, int max, String what) throws IOException {
+      final int ret = next();
+      if (ret < min || ret >= max) {
+        throw corrupt(what + " " + ret + " is out of range");
+      }
+      return ret;
+    }
+
+    /** @return a value from 0 to {@code count}, exclusive. */
+    int index(int count, String what) throws IOException {
+      return range(0, count, what);
+    }
+
+    /**
+     * @return the count of what follows, at least {@code min}, where each item takes at least
+     *         {@code size} bytes.
+     */
+    int count(int min, int size, String what) throws IOException {
+      final int ret = next();
+      if (ret < min || ret > in.remaining() / size) {
+        throw corrupt(what + " count " + ret + " is out of range");
+      }
+      return ret;
+    }
+
+    /** @return the next string, or null. */
+    String string(String what) throws IOException {
+      final int length = next();
+      if (length == -1) {
+        return null;
+      }
+      if (length < 0 || length > in.remaining() / 2) {
+        throw corrupt(what + " length " + length + " is out of range");
+      }
+      final char[] ret = new char[length];
+      in.asCharBuffer().get(ret);
+      in.position(in.position() + 2 * length);
+      return new String(ret);
+    }
+
+    void end() throws IOException {
+      if (in.hasRemaining()) {
+        throw corrupt("there is data after the end");
+      }
+    }
+
+    Section section() throws IOException {
+      final Section ret = new Section();
+      ret.regex = string("regex");
+      final String exact = string("exact literal");
+      final String prefix = string("prefix");
+      final String suffix = string("suffix");
+      final String required = string("required literal");
+      if (prefix == null || suffix == null || required == null) {
+        throw corrupt("a literal is missing");
+      }
+      ret.literals = new Literals(exact, prefix, suffix, required);
+
+      final int numClasses = count(0, 4, "class");
+      final List<InputRange> ranges = new ArrayList<>(numClasses);
+      int min = 0;
+      for (int c = 0; c < numClasses; c++) {
+        final char from = nextChar();
+        final char to = nextChar();
+        if (from < min || to < from) {
+          throw corrupt("class " + c + " is out of order");
+        }
+        ranges.add(InputRange.make(from, to));
+        min = to + 1;
+      }
+      final CharClassifier classes = new CharClassifier(ranges);
+
+      ret.registerCount = count(0, 1, "register"); // Each is named at least once.
+      ret.parentOf = new int[count(1, 1, "group")];
+      ret.parentOf[0] = range(0, 1, "parent of group 0");
+      for (int g = 1; g < ret.parentOf.length; g++) {
+        ret.parentOf[g] = index(g, "parent of group " + g);
+      }
+      ret.startInstructions = instructions(ret.registerCount);
+
+      final int numStates = count(1, 2, "state");
+      final DFAState[] states = new DFAState[numStates];
+      final int[] withoutPrefix = new int[numStates];
+      for (int s = 0; s < numStates; s++) {
+        final int finalCount = range(-1, 2 * ret.parentOf.length + 1, "final history count");
+        Arraylike fin = null;
+        if (finalCount < 0) {
+          withoutPrefix[s] = range(NOT_FINAL, NOT_FINAL + 1, "state without prefix");
+        } else {
+          if (finalCount != 2 * ret.parentOf.length) {
+            throw corrupt("state " + s + " has " + finalCount + " final histories");
+          }
+          fin = Arraylike.make(finalCount);
+          for (int i = 0; i < finalCount; i++) {
+            fin = fin.set(i, history(range(-1, ret.registerCount, "register")));
+          }
+          withoutPrefix[s] = range(-1, numStates, "state without prefix");
+        }
+        states[s] = new DFAState(null, s, 0, fin);
+      }
+
+      ret.builder = new TDFATransitionTable.Builder(classes);
+      for (int s = 0; s < numStates; s++) {
+        ret.builder.stateFor(states[s]);
+        if (withoutPrefix[s] != NOT_FINAL) {
+          ret.withoutPrefix.put(states[s], withoutPrefix[s] < 0 ? null : states[withoutPrefix[s]]);
+        }
+      }
+
+      final int numTransitions = count(0, 5, "transition");
+      for (int t = 0; t < numTransitions; t++) {
+        final DFAState state = states[index(numStates, "state")];
+        final InputRange range = classes.range(index(numClasses, "class"));
+        final DFAState newState = states[index(numStates, "state")];
+        final int registerCount = range(0, ret.registerCount + 1, "register count");
+        final List<Instruction> instructions = new ArrayList<>();
+        for (Instruction i : instructions(registerCount)) {
+          instructions.add(i);
+        }
+        ret.builder.addTransition(state, range, newState, instructions, registerCount);
+      }
+      return ret;
+    }
+
+    /** @return instructions that write only the first {@code registerCount} memory cells. */
+    private Instruction[] instructions(int registerCount) throws IOException {
+      final Instruction[] ret = new Instruction[count(0, 2, "instruction")];
+      for (int i = 0; i < ret.length; i++) {
+        final int opcode = next();
+        switch (opcode) {
+          case SET:
+            final History h = history(index(registerCount, "register"));
+            ret[i] = new SetInstruction(h, index(2, "offset"));
+            break;
+          case REORDER:
+            final History to = history(index(registerCount, "register"));
+            ret[i] = new ReorderInstruction(to, history(index(registerCount, "register")));
+            break;
+          case OPENING_COMMIT:
+            ret[i] = new OpeningCommitInstruction(history(index(registerCount, "register")));
+            break;
+          case CLOSING_COMMIT:
+            ret[i] = new ClosingCommitInstruction(history(index(registerCount, "register")));
+            break;
+          default:
+            throw corrupt("opcode " + opcode + " is unknown");
+        }
+      }
+      return ret;
+    }
+  }
+
+  /** @return a history that only names memory cell {@code register}. */
+  private static History history(int register) {
+    final History ret = new History(register, 0, null);
+    ret.register = register;
+    return ret;
+  }
+}
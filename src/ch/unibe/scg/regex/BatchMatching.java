@@ -0,0 +1,116 @@
+package ch.unibe.scg.regex;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Matching many inputs against one pattern, in parallel. All workers share the automaton of the
+ * pattern, so that states found by one are there for all. Every worker has a matcher of its own.
+ *
+ * @see TDFAInterpreter#matchAll(List, java.util.concurrent.ForkJoinPool)
+ * @see TDFAInterpreter#matchStream(List)
+ */
+final class BatchMatching {
+  private BatchMatching() {} // Not instantiable.
+
+  /** Matches a slice of the inputs, splitting it as long as it is larger than the grain. */
+  static final class Task extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final TDFAInterpreter interpreter;
+    private final List<? extends CharSequence> inputs;
+    private final MatchResultTree[] results;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    /** @param results receives the match of {@code inputs.get(i)} at {@code i}. */
+    Task(TDFAInterpreter interpreter, List<? extends CharSequence> inputs,
+        MatchResultTree[] results, int from, int to, int grain) {
+      this.interpreter = interpreter;
+      this.inputs = inputs;
+      this.results = results;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= grain) {
+        final TDFAMatcher matcher = interpreter.matcher();
+        for (int i = from; i < to; i++) {
+          results[i] = matcher.interpret(inputs.get(i));
+        }
+        return;
+      }
+      final int mid = (from + to) >>> 1;
+      invokeAll(new Task(interpreter, inputs, results, from, mid, grain),
+          new Task(interpreter, inputs, results, mid, to, grain));
+    }
+  }
+
+  /** Matches a slice of the inputs, one at a time, with a matcher made on first use. */
+  static final class Splitter implements Spliterator<MatchResultTree> {
+    private final TDFAInterpreter interpreter;
+    private final List<? extends CharSequence> inputs;
+    private int from;
+    private final int to;
+    private TDFAMatcher matcher;
+
+    Splitter(TDFAInterpreter interpreter, List<? extends CharSequence> inputs, int from, int to) {
+      this.interpreter = interpreter;
+      this.inputs = inputs;
+      this.from = from;
+      this.to = to;
+    }
+
+    private TDFAMatcher matcher() {
+      if (matcher == null) {
+        matcher = interpreter.matcher();
+      }
+      return matcher;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super MatchResultTree> action) {
+      if (from >= to) {
+        return false;
+      }
+      action.accept(matcher().interpret(inputs.get(from++)));
+      return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super MatchResultTree> action) {
+      final TDFAMatcher m = matcher();
+      while (from < to) {
+        action.accept(m.interpret(inputs.get(from++)));
+      }
+    }
+
+    /** @return the first half, so that the order is kept. */
+    @Override
+    public Spliterator<MatchResultTree> trySplit() {
+      if (to - from < 2) {
+        return null;
+      }
+      final int mid = (from + to) >>> 1;
+      final Splitter ret = new Splitter(interpreter, inputs, from, mid);
+      from = mid;
+      return ret;
+    }
+
+    @Override
+    public long estimateSize() {
+      return to - from;
+    }
+
+    @Override
+    public int characteristics() {
+      return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package ch.unibe.scg.regex;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * The equivalence classes of the alphabet, numbered in ascending order. Immutable.
+ *
+ * <p>Classifies chars in constant time, through a two-level table: The high byte of a char picks
+ * a block of 256 chars, and the low byte the class within the block. Blocks in which all chars
+ * are in the same class are shared, so a classifier needs few blocks: at most two per class
+ * boundary, plus one per class. The table is built in one pass over the classes, and only blocks
+ * with a boundary are filled char by char.
+ */
+final class CharClassifier {
+  private static final int BLOCK_BITS = 8;
+  private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+  private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+  private static final int NUM_BLOCKS = (Character.MAX_VALUE + 1) >>> BLOCK_BITS;
+
+  /** The classes, ascending. */
+  final private InputRange[] ranges;
+  /** The class of char {@code c} is {@code blocks[c >>> BLOCK_BITS][c & BLOCK_MASK]}. -1 if none. */
+  final private int[][] blocks;
+
+  /** @param ranges must not intersect. */
+  CharClassifier(final Collection<InputRange> ranges) {
+    final NavigableSet<InputRange> sorted = new TreeSet<>(ranges);
+    this.ranges = sorted.toArray(new InputRange[sorted.size()]);
+    for (int c = 1; c < this.ranges.length; c++) {
+      assert this.ranges[c - 1].getTo() < this.ranges[c].getFrom() : "Overlapping input ranges " + sorted;
+    }
+
+    blocks = new int[NUM_BLOCKS][];
+    // The shared block of every class, at index class + 1, so that no class is at 0.
+    final int[][] uniformBlocks = new int[this.ranges.length + 1][];
+    int k = 0; // The first class that doesn't end before the block.
+    for (int b = 0; b < NUM_BLOCKS; b++) {
+      final int lo = b << BLOCK_BITS;
+      final int hi = lo | BLOCK_MASK;
+      while (k < this.ranges.length && this.ranges[k].getTo() < lo) {
+        k++;
+      }
+
+      final int uniformClass;
+      if (k == this.ranges.length || this.ranges[k].getFrom() > hi) {
+        uniformClass = -1;
+      } else if (this.ranges[k].getFrom() <= lo && this.ranges[k].getTo() >= hi) {
+        uniformClass = k;
+      } else { // A class boundary is in the block.
+        blocks[b] = boundaryBlock(lo, k);
+        continue;
+      }
+      if (uniformBlocks[uniformClass + 1] == null) {
+        final int[] block = new int[BLOCK_SIZE];
+        Arrays.fill(block, uniformClass);
+        uniformBlocks[uniformClass + 1] = block;
+      }
+      blocks[b] = uniformBlocks[uniformClass + 1];
+    }
+  }
+
+  /** @return the block of the chars from {@code lo}, whose first class may be {@code k}. */
+  private int[] boundaryBlock(final int lo, final int k) {
+    final int[] ret = new int[BLOCK_SIZE];
+    Arrays.fill(ret, -1);
+    for (int c = k; c < ranges.length && ranges[c].getFrom() <= (lo | BLOCK_MASK); c++) {
+      final int from = Math.max(ranges[c].getFrom(), lo);
+      final int to = Math.min(ranges[c].getTo(), lo | BLOCK_MASK);
+      Arrays.fill(ret, from - lo, to - lo + 1, c);
+    }
+    return ret;
+  }
+
+  /** @return the number of classes. */
+  int size() {
+    return ranges.length;
+  }
+
+  /** @return the class containing {@code input}. -1 if there is none. */
+  int classOf(final char input) {
+    return blocks[input >>> BLOCK_BITS][input & BLOCK_MASK];
+  }
+
+  /** @return the input range of class {@code c}. */
+  InputRange range(final int c) {
+    return ranges[c];
+  }
+
+  /** @return true if {@code ir} is exactly one of the classes. */
+  boolean isClass(final InputRange ir) {
+    final int c = classOf(ir.getFrom());
+    return c >= 0 && ranges[c].equals(ir);
+  }
+}
@@ -0,0 +1,352 @@
+package ch.unibe.scg.regex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of the JVM class file format to generate {@link CompiledTDFA}s. Not threadsafe.
+ *
+ * <p>Classes are written as version 49, which needs no stack map frames.
+ */
+final class ClassFile {
+  private static final int VERSION = 49;
+  static final int ACC_PUBLIC = 0x0001;
+  static final int ACC_PRIVATE = 0x0002;
+  static final int ACC_STATIC = 0x0008;
+  static final int ACC_FINAL = 0x0010;
+  static final int ACC_SUPER = 0x0020;
+
+  // Opcodes used by the generator.
+  static final int ICONST_M1 = 0x02;
+  static final int ICONST_0 = 0x03;
+  static final int BIPUSH = 0x10;
+  static final int SIPUSH = 0x11;
+  static final int LDC = 0x12;
+  static final int LDC_W = 0x13;
+  static final int ILOAD = 0x15;
+  static final int ALOAD = 0x19;
+  static final int ISTORE = 0x36;
+  static final int IALOAD = 0x2e;
+  static final int ASTORE = 0x3a;
+  static final int IASTORE = 0x4f;
+  static final int IADD = 0x60;
+  static final int IINC = 0x84;
+  static final int IFLT = 0x9b;
+  static final int IF_ICMPGE = 0xa2;
+  static final int GOTO = 0xa7;
+  static final int TABLESWITCH = 0xaa;
+  static final int IRETURN = 0xac;
+  static final int RETURN = 0xb1;
+  static final int GETFIELD = 0xb4;
+  static final int INVOKEVIRTUAL = 0xb6;
+  static final int INVOKESPECIAL = 0xb7;
+  static final int INVOKESTATIC = 0xb8;
+  static final int INVOKEINTERFACE = 0xb9;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+  private final DataOutputStream pool = new DataOutputStream(poolBytes);
+  private final Map<String, Integer> poolIndex = new HashMap<>();
+  private int poolCount = 1;
+
+  private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+  private final DataOutputStream methods = new DataOutputStream(methodBytes);
+  private int methodCount = 0;
+
+  private final String name;
+  private final String superName;
+
+  /** Names are internal names, as in {@code java/lang/Object}. */
+  ClassFile(String name, String superName) {
+    this.name = name;
+    this.superName = superName;
+  }
+
+  /** A position in the code of a method. */
+  static final class Label {
+    private int pos = -1;
+  }
+
+  /** The code of one method. */
+  final class Code {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    /** Places in {@link #bytes} that need the offset of a label, see {@link #resolve()}. */
+    private final List<Fixup> fixups = new ArrayList<>();
+
+    private final class Fixup {
+      final int instruction;
+      final int at;
+      final boolean wide;
+      final Label target;
+
+      Fixup(int instruction, int at, boolean wide, Label target) {
+        this.instruction = instruction;
+        this.at = at;
+        this.wide = wide;
+        this.target = target;
+      }
+    }
+
+    int size() {
+      return bytes.size();
+    }
+
+    void op(int opcode) {
+      bytes.write(opcode);
+    }
+
+    void u1(int b) {
+      bytes.write(b);
+    }
+
+    void u2(int s) {
+      bytes.write(s >>> 8);
+      bytes.write(s);
+    }
+
+    void u4(int i) {
+      u2(i >>> 16);
+      u2(i & 0xffff);
+    }
+
+    /** Push the int constant {@code i}. */
+    void push(int i) {
+      if (-1 <= i && i <= 5) {
+        op(ICONST_0 + i);
+      } else if (Byte.MIN_VALUE <= i && i <= Byte.MAX_VALUE) {
+        op(BIPUSH);
+        u1(i);
+      } else if (Short.MIN_VALUE <= i && i <= Short.MAX_VALUE) {
+        op(SIPUSH);
+        u2(i);
+      } else {
+        final int index = integer(i);
+        if (index < 256) {
+          op(LDC);
+          u1(index);
+        } else {
+          op(LDC_W);
+          u2(index);
+        }
+      }
+    }
+
+    /** An instruction with one local variable index as operand. */
+    void local(int opcode, int local) {
+      op(opcode);
+      u1(local);
+    }
+
+    /** An instruction with one constant pool index as operand. */
+    void ref(int opcode, int index) {
+      op(opcode);
+      u2(index);
+    }
+
+    void invokeInterface(int index, int argSlots) {
+      op(INVOKEINTERFACE);
+      u2(index);
+      u1(argSlots + 1);
+      u1(0);
+    }
+
+    void mark(Label label) {
+      assert label.pos < 0;
+      label.pos = size();
+    }
+
+    /** A jump instruction, such as {@link #GOTO}. */
+    void jump(int opcode, Label target) {
+      final int instruction = size();
+      op(opcode);
+      fixups.add(new Fixup(instruction, size(), false, target));
+      u2(0);
+    }
+
+    /** Jump to {@code targets[i]} if the top of the stack is {@code i}, else to {@code dflt}. */
+    void tableSwitch(Label dflt, Label[] targets) {
+      final int instruction = size();
+      op(TABLESWITCH);
+      while (size() % 4 != 0) {
+        u1(0);
+      }
+      fixups.add(new Fixup(instruction, size(), true, dflt));
+      u4(0);
+      u4(0);
+      u4(targets.length - 1);
+      for (Label l : targets) {
+        fixups.add(new Fixup(instruction, size(), true, l));
+        u4(0);
+      }
+    }
+
+    /** @return the code, with all jump offsets filled in. */
+    private byte[] resolve() {
+      final byte[] ret = bytes.toByteArray();
+      for (Fixup f : fixups) {
+        assert f.target.pos >= 0 : "Unmarked label";
+        final int offset = f.target.pos - f.instruction;
+        if (f.wide) {
+          ret[f.at] = (byte) (offset >>> 24);
+          ret[f.at + 1] = (byte) (offset >>> 16);
+          ret[f.at + 2] = (byte) (offset >>> 8);
+          ret[f.at + 3] = (byte) offset;
+        } else {
+          assert Short.MIN_VALUE <= offset && offset <= Short.MAX_VALUE;
+          ret[f.at] = (byte) (offset >>> 8);
+          ret[f.at + 1] = (byte) offset;
+        }
+      }
+      return ret;
+    }
+  }
+
+  /** @return the index of a constant, adding it if it is new. */
+  private int constant(String key, int tag, int a, int b, boolean twoOperands) {
+    final Integer known = poolIndex.get(key);
+    if (known != null) {
+      return known;
+    }
+    try {
+      pool.writeByte(tag);
+      if (twoOperands) {
+        pool.writeShort(a);
+        pool.writeShort(b);
+      } else {
+        pool.writeShort(a);
+      }
+    } catch (IOException e) {
+      throw new AssertionError(e); // Can't happen on a ByteArrayOutputStream.
+    }
+    poolIndex.put(key, poolCount);
+    return poolCount++;
+  }
+
+  int utf8(String s) {
+    final String key = "U" + s;
+    final Integer known = poolIndex.get(key);
+    if (known != null) {
+      return known;
+    }
+    try {
+      pool.writeByte(CONSTANT_UTF8);
+      pool.writeUTF(s);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    poolIndex.put(key, poolCount);
+    return poolCount++;
+  }
+
+  int integer(int i) {
+    final String key = "I" + i;
+    final Integer known = poolIndex.get(key);
+    if (known != null) {
+      return known;
+    }
+    try {
+      pool.writeByte(CONSTANT_INTEGER);
+      pool.writeInt(i);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    poolIndex.put(key, poolCount);
+    return poolCount++;
+  }
+
+  int classRef(String internalName) {
+    return constant("C" + internalName, CONSTANT_CLASS, utf8(internalName), 0, false);
+  }
+
+  private int nameAndType(String name, String descriptor) {
+    return constant("N" + name + ' ' + descriptor, CONSTANT_NAME_AND_TYPE, utf8(name),
+        utf8(descriptor), true);
+  }
+
+  int fieldRef(String owner, String name, String descriptor) {
+    return constant("F" + owner + '.' + name + ' ' + descriptor, CONSTANT_FIELDREF,
+        classRef(owner), nameAndType(name, descriptor), true);
+  }
+
+  int methodRef(String owner, String name, String descriptor) {
+    return constant("M" + owner + '.' + name + descriptor, CONSTANT_METHODREF, classRef(owner),
+        nameAndType(name, descriptor), true);
+  }
+
+  int interfaceMethodRef(String owner, String name, String descriptor) {
+    return constant("IM" + owner + '.' + name + descriptor, CONSTANT_INTERFACE_METHODREF,
+        classRef(owner), nameAndType(name, descriptor), true);
+  }
+
+  Code code() {
+    return new Code();
+  }
+
+  /**
+   * Add a method with {@code code}.
+   *
+   * @return false if the code is too large for a method, or for 16 bit jumps.
+   */
+  boolean method(int access, String name, String descriptor, int maxStack, int maxLocals,
+      Code code) {
+    if (code.size() > Short.MAX_VALUE) {
+      return false;
+    }
+    final byte[] bytes = code.resolve();
+    try {
+      methods.writeShort(access);
+      methods.writeShort(utf8(name));
+      methods.writeShort(utf8(descriptor));
+      methods.writeShort(1); // Attributes
+      methods.writeShort(utf8("Code"));
+      methods.writeInt(2 + 2 + 4 + bytes.length + 2 + 2);
+      methods.writeShort(maxStack);
+      methods.writeShort(maxLocals);
+      methods.writeInt(bytes.length);
+      methods.write(bytes);
+      methods.writeShort(0); // Exception table
+      methods.writeShort(0); // Attributes
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    methodCount++;
+    return true;
+  }
+
+  byte[] toByteArray() {
+    final int thisClass = classRef(name);
+    final int superClass = classRef(superName);
+    final ByteArrayOutputStream ret = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(ret);
+    try {
+      out.writeInt(0xcafebabe);
+      out.writeShort(0);
+      out.writeShort(VERSION);
+      out.writeShort(poolCount);
+      out.write(poolBytes.toByteArray());
+      out.writeShort(ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0); // Interfaces
+      out.writeShort(0); // Fields
+      out.writeShort(methodCount);
+      out.write(methodBytes.toByteArray());
+      out.writeShort(0); // Attributes
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return ret.toByteArray();
+  }
+}
@@ -0,0 +1,272 @@
+package ch.unibe.scg.regex;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+
+import ch.unibe.scg.regex.ClassFile.Code;
+import ch.unibe.scg.regex.ClassFile.Label;
+import ch.unibe.scg.regex.TDFATransitionTable.Builder.Entry;
+
+/**
+ * A complete TDFA, compiled to a class of its own. Every state is a method that switches over the
+ * input classes, and every transition executes its instructions as straight-line code. The
+ * methods are kept small enough for the JIT to compile and inline them. The generated class is
+ * loaded as a hidden class, so it is unloaded together with its interpreter.
+ *
+ * <p>Immutable, and therefore threadsafe.
+ */
+abstract class CompiledTDFA {
+  private static final String NAME = "ch/unibe/scg/regex/CompiledTDFA";
+  private static final String CLASSES = "ch/unibe/scg/regex/CharClassifier";
+  private static final String MEMORY = "ch/unibe/scg/regex/Memory";
+  private static final String ARENA = "ch/unibe/scg/regex/Arena";
+  private static final String GENERATED = NAME + "$Generated";
+  private static final String RUN = "(Ljava/lang/CharSequence;IIIL" + MEMORY + ";)I";
+  private static final String STEP = "(II[I[IL" + ARENA + ";)I";
+
+  /** The JIT doesn't compile methods with more bytes of code. */
+  private static final int HUGE_METHOD = 8000;
+
+  // Local variables of the generated run method.
+  private static final int THIS = 0, INPUT = 1, POS = 2, END = 3, STATE = 4, MEMORY_ARG = 5,
+      CUR = 6, PREV = 7, ARENA_LOCAL = 8, CLASS = 9, RUN_LOCALS = 10;
+  // Local variables of the generated methods for each state.
+  private static final int STEP_CLASS = 0, STEP_POS = 1, STEP_CUR = 2, STEP_PREV = 3,
+      STEP_ARENA = 4, STEP_LOCALS = 5;
+
+  /** Null if the JVM can't define hidden classes. */
+  private static final Method DEFINE_HIDDEN_CLASS = defineHiddenClassMethod();
+
+  final CharClassifier classes;
+  /** The number of memory cells that the instructions write. */
+  final int registerCount;
+
+  protected CompiledTDFA(CharClassifier classes, int registerCount) {
+    this.classes = classes;
+    this.registerCount = registerCount;
+  }
+
+  /**
+   * Run the automaton on {@code input[from, to)}, starting in {@code state}.
+   *
+   * @param memory must have room for all memory cells that the instructions write.
+   * @return the state after reading all input, or -1 if there was no transition.
+   */
+  abstract int run(CharSequence input, int from, int to, int state, Memory memory);
+
+  private static Method defineHiddenClassMethod() {
+    try {
+      final Class<?> classOption =
+          Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+      return Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class,
+          Array.newInstance(classOption, 0).getClass());
+    } catch (ClassNotFoundException | NoSuchMethodException e) {
+      return null; // Older JVM.
+    }
+  }
+
+  /**
+   * @param table must hold all transitions of a complete automaton, of {@code numStates} states.
+   * @param registerCount the number of memory cells that the instructions write.
+   * @return the compiled automaton, or null if it can't be compiled, because the JVM is too old
+   *         or the automaton too large.
+   */
+  static CompiledTDFA compile(TDFATransitionTable table, int numStates, int registerCount) {
+    if (DEFINE_HIDDEN_CLASS == null) {
+      return null;
+    }
+    final byte[] bytes = generate(table, numStates);
+    if (bytes == null) {
+      return null;
+    }
+    try {
+      final Object empty = Array.newInstance(
+          DEFINE_HIDDEN_CLASS.getParameterTypes()[2].getComponentType(), 0);
+      final Lookup lookup =
+          (Lookup) DEFINE_HIDDEN_CLASS.invoke(MethodHandles.lookup(), bytes, true, empty);
+      return (CompiledTDFA) lookup.lookupClass().getConstructor(CharClassifier.class, int.class)
+          .newInstance(table.classes(), registerCount);
+    } catch (ReflectiveOperationException e) {
+      throw new AssertionError(e); // The generated class is broken.
+    }
+  }
+
+  /** @return the class file, or null if the automaton is too large. */
+  private static byte[] generate(TDFATransitionTable table, int numStates) {
+    final ClassFile cf = new ClassFile(GENERATED, NAME);
+
+    final String initDescriptor = "(L" + CLASSES + ";I)V";
+    final Code init = cf.code();
+    init.local(ClassFile.ALOAD, THIS);
+    init.local(ClassFile.ALOAD, 1);
+    init.local(ClassFile.ILOAD, 2);
+    init.ref(ClassFile.INVOKESPECIAL, cf.methodRef(NAME, "<init>", initDescriptor));
+    init.op(ClassFile.RETURN);
+    cf.method(ClassFile.ACC_PUBLIC, "<init>", initDescriptor, 3, 3, init);
+
+    final Code run = cf.code();
+    final Label loop = new Label();
+    final Label next = new Label();
+    final Label done = new Label();
+    final Label fail = new Label();
+
+    // int[] cur = memory.cur; int[] prev = memory.prev; Arena arena = memory.arena;
+    run.local(ClassFile.ALOAD, MEMORY_ARG);
+    run.ref(ClassFile.GETFIELD, cf.fieldRef(MEMORY, "cur", "[I"));
+    run.local(ClassFile.ASTORE, CUR);
+    run.local(ClassFile.ALOAD, MEMORY_ARG);
+    run.ref(ClassFile.GETFIELD, cf.fieldRef(MEMORY, "prev", "[I"));
+    run.local(ClassFile.ASTORE, PREV);
+    run.local(ClassFile.ALOAD, MEMORY_ARG);
+    run.ref(ClassFile.GETFIELD, cf.fieldRef(MEMORY, "arena", "L" + ARENA + ";"));
+    run.local(ClassFile.ASTORE, ARENA_LOCAL);
+
+    // while (pos < end) { int c = classes.classOf(input.charAt(pos));
+    run.mark(loop);
+    run.local(ClassFile.ILOAD, POS);
+    run.local(ClassFile.ILOAD, END);
+    run.jump(ClassFile.IF_ICMPGE, done);
+    run.local(ClassFile.ALOAD, THIS);
+    run.ref(ClassFile.GETFIELD, cf.fieldRef(NAME, "classes", "L" + CLASSES + ";"));
+    run.local(ClassFile.ALOAD, INPUT);
+    run.local(ClassFile.ILOAD, POS);
+    run.invokeInterface(cf.interfaceMethodRef("java/lang/CharSequence", "charAt", "(I)C"), 1);
+    run.ref(ClassFile.INVOKEVIRTUAL, cf.methodRef(CLASSES, "classOf", "(C)I"));
+    run.local(ClassFile.ISTORE, CLASS);
+
+    //   switch (state) { case s: state = s<s>(c, pos, cur, prev, arena); }
+    final Label[] states = new Label[numStates];
+    for (int s = 0; s < numStates; s++) {
+      states[s] = new Label();
+    }
+    run.local(ClassFile.ILOAD, STATE);
+    run.tableSwitch(fail, states);
+    for (int s = 0; s < numStates; s++) {
+      run.mark(states[s]);
+      run.local(ClassFile.ILOAD, CLASS);
+      run.local(ClassFile.ILOAD, POS);
+      run.local(ClassFile.ALOAD, CUR);
+      run.local(ClassFile.ALOAD, PREV);
+      run.local(ClassFile.ALOAD, ARENA_LOCAL);
+      run.ref(ClassFile.INVOKESTATIC, cf.methodRef(GENERATED, "s" + s, STEP));
+      run.local(ClassFile.ISTORE, STATE);
+      run.jump(ClassFile.GOTO, next);
+    }
+
+    //   if (state < 0) return -1; pos++; }
+    run.mark(next);
+    run.local(ClassFile.ILOAD, STATE);
+    run.jump(ClassFile.IFLT, fail);
+    run.op(ClassFile.IINC);
+    run.u1(POS);
+    run.u1(1);
+    run.jump(ClassFile.GOTO, loop);
+
+    // return state;
+    run.mark(done);
+    run.local(ClassFile.ILOAD, STATE);
+    run.op(ClassFile.IRETURN);
+    run.mark(fail);
+    run.push(-1);
+    run.op(ClassFile.IRETURN);
+
+    if (run.size() > HUGE_METHOD) {
+      return null;
+    }
+    cf.method(ClassFile.ACC_PUBLIC, "run", RUN, 6, RUN_LOCALS, run);
+
+    for (int s = 0; s < numStates; s++) {
+      final Code step = stateMethod(cf, table, s);
+      if (step.size() > HUGE_METHOD) {
+        return null;
+      }
+      cf.method(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC, "s" + s, STEP, 10, STEP_LOCALS, step);
+    }
+    return cf.toByteArray();
+  }
+
+  /**
+   * @return the code of the transitions out of {@code state}: It executes the instructions of the
+   *         transition for the input class, and returns the new state. -1 if there is none.
+   */
+  private static Code stateMethod(ClassFile cf, TDFATransitionTable table, int state) {
+    final Code code = cf.code();
+    final Label fail = new Label();
+    final int numClasses = table.classes().size();
+    final Label[] transitions = new Label[numClasses];
+    final Entry[] entries = new Entry[numClasses];
+    for (int c = 0; c < numClasses; c++) {
+      entries[c] = table.transition(state, table.classes().range(c).getFrom());
+      transitions[c] = entries[c] == null ? fail : new Label();
+    }
+
+    code.local(ClassFile.ILOAD, STEP_CLASS);
+    code.tableSwitch(fail, transitions);
+    for (int c = 0; c < numClasses; c++) {
+      if (entries[c] == null) {
+        continue;
+      }
+      code.mark(transitions[c]);
+      emit(cf, code, entries[c].program);
+      code.push(entries[c].newState);
+      code.op(ClassFile.IRETURN);
+    }
+    code.mark(fail);
+    code.push(-1);
+    code.op(ClassFile.IRETURN);
+    return code;
+  }
+
+  /**
+   * Emit {@code program} as straight-line code that works on the arrays in {@link #STEP_CUR} and
+   * {@link #STEP_PREV}. See {@link Program#execute} for what the opcodes do.
+   */
+  private static void emit(ClassFile cf, Code code, int[] program) {
+    int pc = 0;
+    while (pc < program.length) {
+      switch (program[pc]) {
+        case Program.SET: // cur[r] = pos + k;
+          code.local(ClassFile.ALOAD, STEP_CUR);
+          code.push(program[pc + 1]);
+          code.local(ClassFile.ILOAD, STEP_POS);
+          if (program[pc + 2] != 0) {
+            code.push(program[pc + 2]);
+            code.op(ClassFile.IADD);
+          }
+          code.op(ClassFile.IASTORE);
+          pc += 3;
+          break;
+        case Program.REORDER: // cur[t] = cur[f]; prev[t] = prev[f];
+          for (int array : new int[] {STEP_CUR, STEP_PREV}) {
+            code.local(ClassFile.ALOAD, array);
+            code.push(program[pc + 1]);
+            code.local(ClassFile.ALOAD, array);
+            code.push(program[pc + 2]);
+            code.op(ClassFile.IALOAD);
+            code.op(ClassFile.IASTORE);
+          }
+          pc += 3;
+          break;
+        case Program.COMMIT: // prev[r] = arena.push(cur[r], prev[r]);
+          final int r = program[pc + 1];
+          code.local(ClassFile.ALOAD, STEP_PREV);
+          code.push(r);
+          code.local(ClassFile.ALOAD, STEP_ARENA);
+          code.local(ClassFile.ALOAD, STEP_CUR);
+          code.push(r);
+          code.op(ClassFile.IALOAD);
+          code.local(ClassFile.ALOAD, STEP_PREV);
+          code.push(r);
+          code.op(ClassFile.IALOAD);
+          code.ref(ClassFile.INVOKEVIRTUAL, cf.methodRef(ARENA, "push", "(II)I"));
+          code.op(ClassFile.IASTORE);
+          pc += 2;
+          break;
+        default:
+          throw new AssertionError("Unknown opcode " + program[pc] + " at " + pc);
+      }
+    }
+  }
+}
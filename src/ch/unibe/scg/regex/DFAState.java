@@ -1,91 +1,112 @@
 package ch.unibe.scg.regex;
 
-import static java.util.Objects.requireNonNull;
-
-import java.nio.ByteBuffer;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 
-class DFAState implements Comparable<DFAState> {
-  private static final int BYTES_PER_LONG = 8;
-  private static final int BYTES_PER_INT = 4;
+/**
+ * A state of the TDFA: the threads of the TNFA, in order of priority. Immutable.
+ *
+ * <p>States are identified by two 64 bit hashes, one of the inner states of the threads, and one
+ * of their histories. States with equal inner states are candidates for mapping, see
+ * {@link DFAStateTable#withSameInnerStates}. Equal hashes are confirmed by comparing the threads.
+ */
+class DFAState {
+  private static final long SEED = 0x9E3779B97F4A7C15L;
 
   final List<RThread> threads;
-  final private byte[] comparisonKey;
+  /** Hash of the inner states of {@link #threads}. */
+  final long stateHash;
+  /** Hash of the histories of {@link #threads}. */
+  final long historyHash;
   /** Histories of this state if it is finishing, otherwise null. */
   final Arraylike finalHistories;
 
-  DFAState(final List<RThread> threads, byte[] comparisonKey, Arraylike finalHistories) {
-    this.comparisonKey = requireNonNull(comparisonKey); // Needed for equals.
-    this.threads = threads;
-    this.finalHistories = finalHistories;
+  DFAState(final List<RThread> threads, Arraylike finalHistories) {
+    this(threads, stateHash(threads), historyHash(threads), finalHistories);
   }
 
   /**
-   * @return a key that specifies an ordering of inner states by inner states first, then by histories.
-   * The returned key is the concatenation of two parts, first the part that represents the states,
-   * then the part that represents the histories.
-   *
-   * <p> The first part is generated by {@link #makeStateComparisonKey(Set)}.
+   * @param threads null for states that only exist to be numbered: in tests, and in automata
+   *        loaded by {@link AutomatonFile}.
    */
-  static byte[] makeComparisonKey(List<RThread> innerStates) {
-    assert !innerStates.isEmpty();
-
-    byte[] firstPart = makeStateComparisonKey(innerStates);
-    byte[] secondPart = makeHistoryComparisonKey(innerStates);
-
-    // concatenate both parts.
-    byte[] ret = new byte[firstPart.length + secondPart.length];
-    System.arraycopy(firstPart, 0, ret, 0, firstPart.length);
-    System.arraycopy(secondPart, 0, ret, firstPart.length, secondPart.length);
-    return ret;
+  DFAState(final List<RThread> threads, long stateHash, long historyHash, Arraylike finalHistories) {
+    this.threads = threads;
+    this.stateHash = stateHash;
+    this.historyHash = historyHash;
+    this.finalHistories = finalHistories;
   }
 
-  /** @return a key that specifies an ordering of {@code Set<State>}. */
-  static byte[] makeStateComparisonKey(List<RThread> threads) {
-    MessageDigest md = makeMessageDigest();
-    ByteBuffer intBuf = ByteBuffer.allocate(BYTES_PER_INT);
+  /** @return the hash of the inner states of {@code threads}, in order. */
+  static long stateHash(List<RThread> threads) {
+    assert !threads.isEmpty();
+    long ret = SEED;
     for (RThread t : threads) {
-      intBuf.rewind();
-      intBuf.putInt(t.state.getId());
-      intBuf.rewind();
-      md.update(intBuf);
+      ret = mix(ret + t.state.getId());
     }
-
-    return md.digest();
+    return ret;
   }
 
-  private static byte[] makeHistoryComparisonKey(List<RThread> threads)
-      throws AssertionError {
-    ByteBuffer longBuf = ByteBuffer.allocate(BYTES_PER_LONG);
-    MessageDigest md = makeMessageDigest();
+  /** @return the hash of the histories of {@code threads}, in order. */
+  static long historyHash(List<RThread> threads) {
+    long ret = SEED;
     for (RThread t : threads) {
       for (History h : t.histories) {
-        longBuf.rewind();
-        longBuf.putLong(h.id);
-        longBuf.rewind();
-        md.update(longBuf);
+        ret = mix(ret + h.id);
       }
     }
-    return md.digest();
+    return ret;
   }
 
-  private static MessageDigest makeMessageDigest() throws AssertionError {
-    MessageDigest md;
-    try {
-      md = MessageDigest.getInstance("MD5");
-    } catch (NoSuchAlgorithmException e) {
-      throw new AssertionError(e); // Guaranteed to exist.
+  /** The finalizer of MurmurHash3. Every input bit affects every output bit. */
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /** @return true if the threads of {@code that} are in the same inner states as ours. */
+  boolean sameInnerStates(final DFAState that) {
+    if (stateHash != that.stateHash) {
+      return false;
+    }
+    if (threads == null || that.threads == null) {
+      return threads == that.threads;
     }
-    return md;
+    if (threads.size() != that.threads.size()) {
+      return false;
+    }
+    for (int i = 0; i < threads.size(); i++) {
+      if (threads.get(i).state.getId() != that.threads.get(i).state.getId()) {
+        return false;
+      }
+    }
+    return true;
   }
 
-  @Override
-  public int compareTo(final DFAState that) {
-    return ByteBuffer.wrap(this.comparisonKey).compareTo(ByteBuffer.wrap(that.comparisonKey));
+  private boolean sameHistories(final DFAState that) {
+    if (historyHash != that.historyHash) {
+      return false;
+    }
+    if (threads == null) {
+      return true; // Then so are theirs, see sameInnerStates.
+    }
+    for (int i = 0; i < threads.size(); i++) {
+      final Arraylike mine = threads.get(i).histories;
+      final Arraylike theirs = that.threads.get(i).histories;
+      if (mine.size() != theirs.size()) {
+        return false;
+      }
+      final Iterator<History> iter = theirs.iterator();
+      for (History h : mine) {
+        if (h.id != iter.next().id) {
+          return false;
+        }
+      }
+    }
+    return true;
   }
 
   @Override
@@ -101,21 +122,19 @@ class DFAState implements Comparable<DFAState> {
     }
     final DFAState other = (DFAState) obj;
 
-    return Arrays.equals(comparisonKey, other.comparisonKey);
+    return sameInnerStates(other) && sameHistories(other);
   }
 
   @Override
   public int hashCode() {
-    int ret = 0;
-    for (byte b : comparisonKey) {
-      ret *= 31;
-      ret ^= b;
-    }
-    return ret;
+    return (int) (stateHash ^ (stateHash >>> 32) ^ historyHash ^ (historyHash >>> 32));
   }
 
   @Override
   public String toString() {
+    if (threads == null) {
+      return "(" + stateHash + ")";
+    }
     final StringBuilder sb = new StringBuilder();
     sb.append('(');
     for (RThread el : threads) {
@@ -128,4 +147,4 @@ class DFAState implements Comparable<DFAState> {
     sb.append(')');
     return sb.toString();
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,51 @@
+package ch.unibe.scg.regex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Intern table of the known {@link DFAState}s, indexed by their hashes. Not threadsafe.
+ *
+ * <p>Besides finding equal states, finds the states with the same inner states, which are the only
+ * ones a new state can be mapped to.
+ */
+final class DFAStateTable {
+  private final Map<DFAState, DFAState> interned = new HashMap<>();
+  /** Buckets of states, by {@link DFAState#stateHash}, in order of insertion. */
+  private final Map<Long, List<DFAState>> byInnerStates = new HashMap<>();
+
+  /** @return the known state equal to {@code state}. If there is none, {@code state}, which is now known. */
+  DFAState intern(final DFAState state) {
+    final DFAState known = interned.get(state);
+    if (known != null) {
+      return known;
+    }
+    interned.put(state, state);
+    List<DFAState> bucket = byInnerStates.get(state.stateHash);
+    if (bucket == null) {
+      bucket = new ArrayList<>(1);
+      byInnerStates.put(state.stateHash, bucket);
+    }
+    bucket.add(state);
+    return state;
+  }
+
+  /**
+   * @return the known states that may have the same inner states as {@code state}. Callers must
+   *         check {@link DFAState#sameInnerStates}, since hashes can collide.
+   */
+  List<DFAState> withSameInnerStates(final DFAState state) {
+    final List<DFAState> bucket = byInnerStates.get(state.stateHash);
+    if (bucket == null) {
+      return Collections.emptyList();
+    }
+    return bucket;
+  }
+
+  int size() {
+    return interned.size();
+  }
+}
@@ -0,0 +1,156 @@
+package ch.unibe.scg.regex;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import ch.unibe.scg.regex.TDFATransitionTable.Builder.Entry;
+
+/**
+ * Flight recorder events of the work done to build automata. They cost next to nothing unless
+ * they are enabled in a recording. The flight recorder API is why the library needs JDK 11.
+ */
+final class Events {
+  private Events() {} // Not instantiable.
+
+  /** @return {@code regex}, or a placeholder for automata that weren't compiled from a regex. */
+  static String pattern(String regex) {
+    return regex == null ? "<unknown>" : regex;
+  }
+
+  /** @return a started event for a phase of compilation. */
+  static CompilePhase beginPhase() {
+    final CompilePhase ret = new CompilePhase();
+    ret.begin();
+    return ret;
+  }
+
+  /**
+   * End {@code event}, as returned by {@link #beginPhase}, and commit it if it is enabled.
+   *
+   * @param tnfa the NFA so far. Null if there is none yet.
+   * @param dfaStates the number of DFA states so far.
+   */
+  static void endPhase(CompilePhase event, String regex, String phase, TNFA tnfa, int dfaStates) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.pattern = pattern(regex);
+      event.phase = phase;
+      event.nfaStates = tnfa == null ? 0 : tnfa.allStates().size();
+      event.dfaStates = dfaStates;
+      event.commit();
+    }
+  }
+
+  /** @return a started event for a new state. */
+  static NewState beginNewState() {
+    final NewState ret = new NewState();
+    ret.begin();
+    return ret;
+  }
+
+  /**
+   * End {@code event}, as returned by {@link #beginNewState}, and commit it if it is enabled.
+   *
+   * @param entry the transition into the new state.
+   */
+  static void endNewState(NewState event, String regex, Entry entry, int dfaStates) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.pattern = pattern(regex);
+      event.state = entry.newState;
+      event.threads = entry.toDFA.threads.size();
+      event.dfaStates = dfaStates;
+      event.commit();
+    }
+  }
+
+  /** @return a started event for a table miss. */
+  static TableMiss beginTableMiss() {
+    final TableMiss ret = new TableMiss();
+    ret.begin();
+    return ret;
+  }
+
+  /**
+   * End {@code event}, as returned by {@link #beginTableMiss}, and commit it if it is enabled.
+   *
+   * @param entry the determinized transition out of {@code state}. Null if there is none.
+   */
+  static void endTableMiss(TableMiss event, TDFAInterpreter automaton, int state, Entry entry) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.pattern = pattern(automaton.regex);
+      event.state = state;
+      event.newState = entry == null ? -1 : entry.newState;
+      event.dfaStates = automaton.stateCount();
+      event.commit();
+    }
+  }
+
+  @Name("ch.unibe.scg.regex.CompilePhase")
+  @Label("Regex Compile Phase")
+  @Category("Regex")
+  @Description("One phase of TDFAInterpreter.compile")
+  @StackTrace(false)
+  static final class CompilePhase extends Event {
+    @Label("Pattern")
+    String pattern;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("NFA States")
+    @Description("States of the NFA, once it exists")
+    int nfaStates;
+
+    @Label("DFA States")
+    @Description("States of the DFA, once it exists")
+    int dfaStates;
+  }
+
+  @Name("ch.unibe.scg.regex.NewState")
+  @Label("Regex New DFA State")
+  @Category("Regex")
+  @Description("A DFA state was determinized, because no known state could be mapped to")
+  @StackTrace(false)
+  static final class NewState extends Event {
+    @Label("Pattern")
+    String pattern;
+
+    @Label("State")
+    int state;
+
+    @Label("Threads")
+    @Description("Threads of the NFA in the new state")
+    int threads;
+
+    @Label("DFA States")
+    @Description("States of the DFA, including the new one")
+    int dfaStates;
+  }
+
+  @Name("ch.unibe.scg.regex.TableMiss")
+  @Label("Regex Table Miss")
+  @Category("Regex")
+  @Description("A matcher left the transition table to determinize a transition, and went back")
+  @StackTrace(false)
+  static final class TableMiss extends Event {
+    @Label("Pattern")
+    String pattern;
+
+    @Label("From State")
+    int state;
+
+    @Label("To State")
+    @Description("-1 if there is no transition")
+    int newState;
+
+    @Label("DFA States")
+    @Description("States of the DFA, after determinizing")
+    int dfaStates;
+  }
+}
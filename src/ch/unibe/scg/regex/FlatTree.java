@@ -0,0 +1,161 @@
+package ch.unibe.scg.regex;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A parse tree without an object per node, for bulk extraction. Node {@code i} is the
+ * {@code i}th node in preorder, and its group, start, end, parent, first child and next sibling
+ * are at index {@code i} of parallel int arrays. Node 0 is the root. Links to no node are
+ * {@link #NONE}.
+ *
+ * <p>Spans are offsets, or views into the input, which are not copied. Immutable.
+ *
+ * @see MatchResultTree#getRoot() for a tree of nodes, which are found as they are visited.
+ */
+public final class FlatTree {
+  /** The link to no node. */
+  public static final int NONE = -1;
+
+  private final int[] group;
+  private final int[] start;
+  private final int[] end;
+  private final int[] parent;
+  private final int[] firstChild;
+  private final int[] nextSibling;
+  /** Null if the input was streamed. */
+  private final CharSequence input;
+  /** The number of nodes added so far, while building. */
+  private int size = 0;
+
+  private FlatTree(RealMatchResult res) {
+    int n = 0;
+    for (int g = 0; g < res.parentOf.length; g++) {
+      n += res.count(g);
+    }
+    group = new int[n];
+    start = new int[n];
+    end = new int[n];
+    parent = new int[n];
+    firstChild = new int[n];
+    nextSibling = new int[n];
+    input = res.input;
+    res.accept(new Builder(res.parentOf.length));
+    assert size == n;
+  }
+
+  /**
+   * @return the tree of {@code res}.
+   * @throws NoSuchElementException if there was no match, like {@link MatchResultTree#getRoot()}.
+   */
+  public static FlatTree of(MatchResultTree res) {
+    if (!(res instanceof RealMatchResult)) {
+      throw new NoSuchElementException("There was no match!");
+    }
+    return new FlatTree((RealMatchResult) res);
+  }
+
+  /** Appends the nodes it is sent, in preorder. */
+  private final class Builder implements TreeVisitor {
+    /** The nodes entered, but not exited yet, outermost first. */
+    private final int[] open;
+    /** The last child so far of each open node, or {@link #NONE}. */
+    private final int[] lastChild;
+    private int depth = 0;
+
+    Builder(int maxDepth) {
+      open = new int[maxDepth];
+      lastChild = new int[maxDepth];
+    }
+
+    @Override
+    public void enterGroup(int g, int from) {
+      final int node = size++;
+      group[node] = g;
+      start[node] = from;
+      firstChild[node] = NONE;
+      nextSibling[node] = NONE;
+      if (depth == 0) {
+        parent[node] = NONE;
+      } else {
+        final int up = open[depth - 1];
+        parent[node] = up;
+        if (lastChild[depth - 1] == NONE) {
+          firstChild[up] = node;
+        } else {
+          nextSibling[lastChild[depth - 1]] = node;
+        }
+        lastChild[depth - 1] = node;
+      }
+      open[depth] = node;
+      lastChild[depth] = NONE;
+      depth++;
+    }
+
+    @Override
+    public void exitGroup(int g, int to) {
+      depth--;
+      end[open[depth]] = to;
+    }
+  }
+
+  /** @return the number of nodes. */
+  public int size() {
+    return size;
+  }
+
+  /** @return the capture group of {@code node}. See {@link MatchResultTree.TreeNode#getGroup()}. */
+  public int group(int node) {
+    return group[node];
+  }
+
+  /** @return the index of the first character of {@code node}. */
+  public int start(int node) {
+    return start[node];
+  }
+
+  /** @return the index after the last character of {@code node}. */
+  public int end(int node) {
+    return end[node];
+  }
+
+  /** @return the parent of {@code node}, or {@link #NONE} for the root. */
+  public int parent(int node) {
+    return parent[node];
+  }
+
+  /** @return the first child of {@code node}, or {@link #NONE}. */
+  public int firstChild(int node) {
+    return firstChild[node];
+  }
+
+  /** @return the next child of the parent of {@code node}, or {@link #NONE}. */
+  public int nextSibling(int node) {
+    return nextSibling[node];
+  }
+
+  /**
+   * @return the input that {@code node} matched, as a view into the input. Nothing is copied.
+   * @throws UnsupportedOperationException if the input was streamed, and not kept.
+   */
+  public CharSequence span(int node) {
+    return RealMatchResult.span(input, start[node], end[node]);
+  }
+
+  /** @return all nodes, as {@code (group start end child...)}. */
+  @Override
+  public String toString() {
+    final StringBuilder ret = new StringBuilder();
+    appendTo(ret, 0);
+    return ret.toString();
+  }
+
+  private void appendTo(StringBuilder out, int node) {
+    out.append('(').append(group[node]).append(' ').append(start[node]).append(' ')
+        .append(end[node]);
+    for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+      out.append(' ');
+      appendTo(out, child);
+    }
+    out.append(')');
+  }
+}
@@ -0,0 +1,245 @@
+package ch.unibe.scg.regex;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds all matches of a regex in all files under some paths, and prints their parse trees.
+ *
+ * <pre>
+ *   java ch.unibe.scg.regex.Grep [-j workers] regex [path...]
+ * </pre>
+ *
+ * Every file is memory-mapped and matched as UTF-8 bytes in place, see
+ * {@link TDFAInterpreter#compileUtf8}. Files are matched in parallel on a fixed number of workers,
+ * which share the automaton, but results are printed in the order in which the files were found.
+ * At most a few files per worker are in flight at a time.
+ *
+ * <p>Every match is printed on a line of its own, after the path of its file:
+ *
+ * <pre>
+ *   path:(group start end child...)
+ * </pre>
+ *
+ * where every child is a tree of the same form, see {@link FlatTree}. Positions are byte offsets
+ * into the file, and end is exclusive. Exits with 0 if there was a match, 1 if there was none,
+ * and 2 on errors.
+ */
+public final class Grep {
+  /** Files can only be mapped into one buffer up to this size. */
+  private static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+  private final TDFAInterpreter interpreter;
+  private final int workers;
+  private final PrintStream out;
+  private final PrintStream err;
+  private boolean failed = false;
+
+  /** @param interpreter must be compiled by {@link TDFAInterpreter#compileUtf8}. */
+  Grep(TDFAInterpreter interpreter, int workers, PrintStream out, PrintStream err) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("Need at least one worker, not " + workers + ".");
+    }
+    this.interpreter = interpreter;
+    this.workers = workers;
+    this.out = out;
+    this.err = err;
+  }
+
+  /** See {@link Grep}. */
+  public static void main(String... args) {
+    System.exit(run(Arrays.asList(args), System.out, System.err));
+  }
+
+  /** @return the exit status of {@link #main}, having printed to {@code out} and {@code err}. */
+  static int run(List<String> args, PrintStream out, PrintStream err) {
+    int workers = Runtime.getRuntime().availableProcessors();
+    int i = 0;
+    try {
+      if (args.size() > 1 && args.get(0).equals("-j")) {
+        workers = Integer.parseInt(args.get(1));
+        i = 2;
+      }
+      if (i >= args.size() || workers < 1) {
+        throw new IllegalArgumentException();
+      }
+    } catch (IllegalArgumentException e) {
+      err.println("Usage: Grep [-j workers] regex [path...]");
+      return 2;
+    }
+
+    final TDFAInterpreter interpreter;
+    try {
+      interpreter = TDFAInterpreter.compileUtf8(args.get(i));
+    } catch (RuntimeException e) { // The parser throws unchecked exceptions.
+      err.println("Invalid regex " + args.get(i) + ": " + e.getMessage());
+      return 2;
+    }
+
+    final List<Path> roots = new ArrayList<>();
+    for (String path : args.subList(i + 1, args.size())) {
+      roots.add(Paths.get(path));
+    }
+    if (roots.isEmpty()) {
+      roots.add(Paths.get("."));
+    }
+
+    final Grep grep = new Grep(interpreter, workers, out, err);
+    final long matches = grep.grep(roots);
+    out.flush();
+    if (grep.failed) {
+      return 2;
+    }
+    return matches > 0 ? 0 : 1;
+  }
+
+  /** @return the number of matches in all files under {@code roots}, which were printed. */
+  long grep(List<Path> roots) {
+    final ExecutorService pool = Executors.newFixedThreadPool(workers);
+    final Printer printer = new Printer(2 * workers);
+    try {
+      for (Path root : roots) {
+        try {
+          Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, BasicFileAttributes attrs) {
+              if (attrs.isRegularFile()) {
+                printer.add(pool.submit(new Callable<FileMatches>() {
+                  @Override
+                  public FileMatches call() {
+                    return matchFile(file);
+                  }
+                }));
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+              fail(file, e);
+              return FileVisitResult.CONTINUE;
+            }
+          });
+        } catch (IOException e) {
+          fail(root, e);
+        }
+      }
+      printer.drain(0);
+    } finally {
+      pool.shutdownNow();
+    }
+    return printer.matches;
+  }
+
+  /** Prints the matches of files in the order they were submitted, keeping a few in flight. */
+  private final class Printer {
+    private final Queue<Future<FileMatches>> inFlight = new ArrayDeque<>();
+    private final int maxInFlight;
+    long matches = 0;
+
+    Printer(int maxInFlight) {
+      this.maxInFlight = maxInFlight;
+    }
+
+    void add(Future<FileMatches> future) {
+      inFlight.add(future);
+      drain(maxInFlight);
+    }
+
+    /** Print files, oldest first, until no more than {@code left} are in flight. */
+    void drain(int left) {
+      while (inFlight.size() > left) {
+        final FileMatches fm;
+        try {
+          fm = getUninterruptibly(inFlight.remove());
+        } catch (ExecutionException e) {
+          throw new RuntimeException(e.getCause());
+        }
+        if (fm.error != null) {
+          fail(fm.file, fm.error);
+          continue;
+        }
+        out.print(fm.lines);
+        matches += fm.count;
+      }
+    }
+  }
+
+  private static <T> T getUninterruptibly(Future<T> future) throws ExecutionException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void fail(Path file, IOException e) {
+    failed = true;
+    err.println(file + ": " + e);
+  }
+
+  /** The printed matches of one file, or why it couldn't be read. */
+  private static final class FileMatches {
+    final Path file;
+    final String lines;
+    final int count;
+    final IOException error;
+
+    FileMatches(Path file, String lines, int count, IOException error) {
+      this.file = file;
+      this.lines = lines;
+      this.count = count;
+      this.error = error;
+    }
+  }
+
+  /** Runs on a worker. Maps {@code file}, and prints its matches into a string. */
+  FileMatches matchFile(Path file) {
+    final List<MatchResultTree> found;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size > MAX_FILE_SIZE) {
+        throw new IOException("Files of more than " + MAX_FILE_SIZE + " bytes can't be mapped.");
+      }
+      final MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, 0, size);
+      found = interpreter.matcher().findAll(mapped);
+    } catch (IOException e) {
+      return new FileMatches(file, null, 0, e);
+    }
+
+    final StringBuilder lines = new StringBuilder();
+    for (MatchResultTree res : found) {
+      lines.append(file).append(':').append(FlatTree.of(res)).append('\n');
+    }
+    return new FileMatches(file, lines.toString(), found.size(), null);
+  }
+}
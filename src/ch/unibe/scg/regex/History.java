@@ -3,9 +3,10 @@ package ch.unibe.scg.regex;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Flyweight for the shared history of the memory cells. Singly-linked list where the
- * head (and it's {@code cur}) is mutable, but the rest (everything visible from {@code prev})
- * is immutable.
+ * Flyweight for the shared history of the memory cells. Immutable singly-linked list.
+ *
+ * <p>Histories that appear in {@link DFAState}s name a memory cell. The cell itself lives in the
+ * {@link Memory} of each matcher, so that one automaton can be shared between threads.
  */
 class History implements IntIterable {
   final static private AtomicLong nextId = new AtomicLong();
@@ -15,8 +16,14 @@ class History implements IntIterable {
 
   final long id;
 
-  int cur;
-  History prev;
+  final int cur;
+  final History prev;
+
+  /**
+   * The memory cell this history names. Assigned by {@link Instruction.InstructionMaker} when the
+   * history is first used by an instruction. -1 if it never was.
+   */
+  volatile int register = -1;
 
   History(long id, int head, History history) {
     this.id = id;
@@ -22,6 +22,11 @@ class InputRangeCleanup {
       final InputRange c = pq.poll();
       final InputRange n = pq.poll();
 
+      if (c.equals(n)) { // Splitting made a range twice.
+        pq.add(c);
+        continue;
+      }
+
       final char c1 = c.getFrom(), c2 = c.getTo();
       final char n1 = n.getFrom(), n2 = n.getTo();
       // Three cases:
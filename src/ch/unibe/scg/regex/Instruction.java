@@ -16,39 +16,68 @@ interface Instruction {
       return ++id;
     }
 
+    /** @return the number of memory cells handed out so far. */
+    int registerCount() {
+      return id + 1;
+    }
+
+    /** Assign {@code h} the next free memory cell, unless it already has one. */
+    History register(final History h) {
+      if (h.register < 0) {
+        h.register = nextId();
+      }
+      return h;
+    }
+
+    /**
+     * Hand out the cells from {@code count} on again. No history still in use may name one of
+     * them.
+     */
+    void reset(final int count) {
+      id = count - 1;
+    }
+
     Instruction openingCommit(final History tdash) {
-      return new OpeningCommitInstruction(tdash);
+      return new OpeningCommitInstruction(register(tdash));
     }
 
     Instruction closingCommit(final History newHistory) {
-      return new ClosingCommitInstruction(newHistory);
+      return new ClosingCommitInstruction(register(newHistory));
     }
 
     Instruction reorder(History target, History source) {
-      return new ReorderInstruction(target, source);
+      return new ReorderInstruction(register(target), register(source));
     }
 
     Instruction storePos(final History newHistory) {
-      return new SetInstruction(newHistory, 0);
+      return new SetInstruction(register(newHistory), 0);
     }
 
     Instruction storePosPlusOne(History newHistory) {
-      return new SetInstruction(newHistory, 1);
+      return new SetInstruction(register(newHistory), 1);
     }
   }
 
   static class ReorderInstruction implements Instruction {
     final History from, to;
+    final int fromRegister, toRegister;
 
     ReorderInstruction(History to, History from) {
       this.to = requireNonNull(to);
       this.from = requireNonNull(from);
+      this.toRegister = to.register;
+      this.fromRegister = from.register;
+    }
+
+    @Override
+    public void execute(int pos, Memory memory) {
+      memory.cur[toRegister] = memory.cur[fromRegister];
+      memory.prev[toRegister] = memory.prev[fromRegister];
     }
 
     @Override
-    public void execute(int pos) {
-      to.cur = from.cur;
-      to.prev = from.prev;
+    public int[] opcodes() {
+      return new int[] {Program.REORDER, toRegister, fromRegister};
     }
 
     @Override
@@ -59,16 +88,23 @@ interface Instruction {
 
   static class SetInstruction implements Instruction {
     final History history;
+    final int register;
     final int offset;
 
     SetInstruction(final History newHistory, int offset) {
       this.history = requireNonNull(newHistory);
+      this.register = newHistory.register;
       this.offset = offset;
     }
 
     @Override
-    public void execute(final int inputPos) {
-      history.cur = inputPos + offset;
+    public void execute(final int inputPos, Memory memory) {
+      memory.cur[register] = inputPos + offset;
+    }
+
+    @Override
+    public int[] opcodes() {
+      return new int[] {Program.SET, register, offset};
     }
 
     @Override
@@ -83,14 +119,21 @@ interface Instruction {
 
   static class OpeningCommitInstruction implements Instruction {
     final History history;
+    final int register;
 
     OpeningCommitInstruction(final History newHistory) {
       this.history = requireNonNull(newHistory);
+      this.register = newHistory.register;
+    }
+
+    @Override
+    public void execute(int unusedPos, Memory memory) {
+      memory.prev[register] = memory.arena.push(memory.cur[register], memory.prev[register]);
     }
 
     @Override
-    public void execute(int unusedPos) {
-      history.prev = new History(-1L, history.cur, history.prev);
+    public int[] opcodes() {
+      return new int[] {Program.COMMIT, register};
     }
 
     @Override
@@ -101,14 +144,21 @@ interface Instruction {
 
   static class ClosingCommitInstruction implements Instruction {
     final History history;
+    final int register;
 
     ClosingCommitInstruction(final History newHistory) {
       this.history = requireNonNull(newHistory);
+      this.register = newHistory.register;
     }
 
     @Override
-    public void execute(int unusedPos) {
-      history.prev = new History(-1L, history.cur, history.prev);
+    public void execute(int unusedPos, Memory memory) {
+      memory.prev[register] = memory.arena.push(memory.cur[register], memory.prev[register]);
+    }
+
+    @Override
+    public int[] opcodes() {
+      return new int[] {Program.COMMIT, register};
     }
 
     @Override
@@ -117,5 +167,9 @@ interface Instruction {
     }
   }
 
-  public void execute(int pos);
+  /** Execute on the memory cells of one matcher. */
+  public void execute(int pos, Memory memory);
+
+  /** @return the same instruction, for the register machine of {@link Program}. */
+  public int[] opcodes();
 }
@@ -0,0 +1,220 @@
+package ch.unibe.scg.regex;
+
+import ch.unibe.scg.regex.ParserProvider.Node;
+import ch.unibe.scg.regex.ParserProvider.Node.Char;
+import ch.unibe.scg.regex.ParserProvider.Node.Group;
+import ch.unibe.scg.regex.ParserProvider.Node.Plus;
+import ch.unibe.scg.regex.ParserProvider.Node.PositiveSet;
+import ch.unibe.scg.regex.ParserProvider.Node.Simple;
+import ch.unibe.scg.regex.ParserProvider.Node.Union;
+
+/**
+ * Literals that every match of a regex contains, found in its parse tree. Inputs without them
+ * can't match, and are rejected by a substring search before the automaton runs. Immutable.
+ */
+final class Literals {
+  /** For regexes without literals. Rejects nothing. */
+  static final Literals NONE = new Literals(null, "", "", "");
+
+  /** The entire match, if the regex matches only this one string. Otherwise null. */
+  final String exact;
+  /** Every match starts with this. Maybe empty. */
+  final String prefix;
+  /** Every match ends with this. Maybe empty. */
+  final String suffix;
+  /** Every match contains this. The longest such literal found. Maybe empty. */
+  final String required;
+  /** True if looking for {@link #prefix} finds {@link #required}, too. */
+  private final boolean requiredInPrefix;
+  /** True if looking for {@link #suffix} finds {@link #required}, too. */
+  private final boolean requiredInSuffix;
+
+  Literals(String exact, String prefix, String suffix, String required) {
+    this.exact = exact;
+    this.prefix = prefix;
+    this.suffix = suffix;
+    this.required = required;
+    requiredInPrefix = prefix.contains(required);
+    requiredInSuffix = suffix.contains(required);
+  }
+
+  /** @return these literals, encoded as UTF-8 one char per byte, for automata that read bytes. */
+  Literals utf8() {
+    return new Literals(exact == null ? null : Utf8.encode(exact), Utf8.encode(prefix),
+        Utf8.encode(suffix), Utf8.encode(required));
+  }
+
+  private static Literals exactly(String s) {
+    return new Literals(s, s, s, s);
+  }
+
+  /** @return the literals of {@code node}. */
+  static Literals of(Node node) {
+    if (node instanceof Char) {
+      return exactly(String.valueOf(((Char) node).inputRange.getFrom()));
+    } else if (node instanceof PositiveSet) {
+      return ofSet((PositiveSet) node);
+    } else if (node instanceof Group) {
+      return of(((Group) node).body);
+    } else if (node instanceof Simple) {
+      return ofSimple((Simple) node);
+    } else if (node instanceof Union) {
+      return ofUnion(of(((Union) node).left), of(((Union) node).right));
+    } else if (node instanceof Plus) {
+      final Literals inner = of(((Plus) node).elementary);
+      return new Literals(null, inner.prefix, inner.suffix, inner.required);
+    }
+    return NONE; // Stars and options may match nothing. Any char and end of string are no literal.
+  }
+
+  /** A set of a single char is that char. */
+  private static Literals ofSet(PositiveSet set) {
+    Character only = null;
+    for (Node.SetItem item : set.items) {
+      final InputRange r = item.inputRange;
+      if (r.getFrom() != r.getTo() || (only != null && only != r.getFrom())) {
+        return NONE;
+      }
+      only = r.getFrom();
+    }
+    return only == null ? NONE : exactly(String.valueOf(only));
+  }
+
+  /** Literals of a sequence. Adjacent exact parts join, and join the parts around them. */
+  private static Literals ofSimple(Simple simple) {
+    final StringBuilder exact = new StringBuilder();
+    boolean allExact = true;
+    String prefix = null; // Known once the first part that isn't exact is seen.
+    String required = "";
+    StringBuilder run = new StringBuilder(); // The end of all parts so far.
+    for (Node basic : simple.basics) {
+      final Literals l = of(basic);
+      if (l.exact != null) {
+        exact.append(l.exact);
+        run.append(l.exact);
+        continue;
+      }
+      if (allExact) {
+        allExact = false;
+        prefix = exact + l.prefix;
+      }
+      required = longer(required, longer(run + l.prefix, l.required));
+      run = new StringBuilder(l.suffix);
+    }
+    required = longer(required, run.toString());
+    if (allExact) {
+      return exactly(exact.toString());
+    }
+    return new Literals(null, prefix, run.toString(), required);
+  }
+
+  private static Literals ofUnion(Literals left, Literals right) {
+    if (left.exact != null && left.exact.equals(right.exact)) {
+      return left;
+    }
+    final String prefix = commonPrefix(left.prefix, right.prefix);
+    final String suffix = commonSuffix(left.suffix, right.suffix);
+    return new Literals(null, prefix, suffix, longer(prefix, suffix));
+  }
+
+  private static String longer(String a, String b) {
+    return b.length() > a.length() ? b : a;
+  }
+
+  private static String commonPrefix(String a, String b) {
+    int i = 0;
+    while (i < a.length() && i < b.length() && a.charAt(i) == b.charAt(i)) {
+      i++;
+    }
+    return a.substring(0, i);
+  }
+
+  private static String commonSuffix(String a, String b) {
+    int i = 0;
+    while (i < a.length() && i < b.length()
+        && a.charAt(a.length() - 1 - i) == b.charAt(b.length() - 1 - i)) {
+      i++;
+    }
+    return a.substring(a.length() - i);
+  }
+
+  /** @return false if {@code input} can't match as a whole, because it lacks a literal. */
+  boolean mayMatch(CharSequence input) {
+    if (!prefix.isEmpty() && !startsWith(input, prefix)) {
+      return false;
+    }
+    if (!suffix.isEmpty() && !endsWith(input, suffix)) {
+      return false;
+    }
+    return requiredInPrefix || requiredInSuffix || indexOf(input, required, 0) >= 0;
+  }
+
+  /**
+   * @return the first position at or after {@code from} where a match of a search may start, or
+   *         -1 if no match can be found there.
+   */
+  int firstCandidate(CharSequence input, int from) {
+    if (!requiredInPrefix && indexOf(input, required, from) < 0) {
+      return -1;
+    }
+    return prefix.isEmpty() ? from : indexOf(input, prefix, from);
+  }
+
+  private static boolean startsWith(CharSequence input, String literal) {
+    if (input instanceof String) {
+      return ((String) input).startsWith(literal);
+    }
+    if (input.length() < literal.length()) {
+      return false;
+    }
+    for (int i = 0; i < literal.length(); i++) {
+      if (input.charAt(i) != literal.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean endsWith(CharSequence input, String literal) {
+    if (input instanceof String) {
+      return ((String) input).endsWith(literal);
+    }
+    final int offset = input.length() - literal.length();
+    if (offset < 0) {
+      return false;
+    }
+    for (int i = 0; i < literal.length(); i++) {
+      if (input.charAt(offset + i) != literal.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return like {@link String#indexOf(String, int)}, which is used for strings. */
+  static int indexOf(CharSequence input, String literal, int from) {
+    if (input instanceof String) {
+      return ((String) input).indexOf(literal, from);
+    }
+    final int last = input.length() - literal.length();
+    final char first = literal.charAt(0);
+    outer: for (int i = from; i <= last; i++) {
+      if (input.charAt(i) != first) {
+        continue;
+      }
+      for (int j = 1; j < literal.length(); j++) {
+        if (input.charAt(i + j) != literal.charAt(j)) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("exact %s, prefix \"%s\", suffix \"%s\", required \"%s\"", exact, prefix,
+        suffix, required);
+  }
+}
@@ -10,6 +10,9 @@ import java.util.regex.MatchResult;
  * The match boundaries, groups and group boundaries can be seen but
  * not modified through a {@code MatchResultTree}. Access is thread-safe.
  *
+ * <p>Results of streamed input don't keep the input. They report positions, but
+ * {@link #group(int)} throws {@link UnsupportedOperationException}.
+ *
  * @see MatchResultTree#getRoot {@code getRoot} to get access to the hierarchy.
  */
 public interface MatchResultTree extends MatchResult {
@@ -57,7 +60,12 @@ public interface MatchResultTree extends MatchResult {
 		 */
 		public Iterable<TreeNode> getChildren();
 
-		/** @return match result for the sub-pattern. */
+		/**
+		 * @return match result for the sub-pattern, as a copy of the input it matched. For
+		 *         streamed input, which isn't kept, its positions instead. Strings can't share
+		 *         the chars of the input, so this is the one accessor that copies. Callers that
+		 *         print or scan many nodes should use {@link #span()} instead.
+		 */
 		@Override
 		public String toString();
 
@@ -79,6 +87,20 @@ public interface MatchResultTree extends MatchResult {
 		 */
 		public int getGroup();
 
+		/** @return the index of the first character of this match. */
+		public int start();
+
+		/** @return the index after the last character of this match. */
+		public int end();
+
+		/**
+		 * @return the input of this match, as a view into the input. This is the zero-copy
+		 *         accessor: nothing is copied until the view is, so it can be appended to a
+		 *         {@link StringBuilder} or written out directly.
+		 * @throws UnsupportedOperationException if the input was streamed.
+		 */
+		public CharSequence span();
+
 		// TODO:
 		// /** @return {@code TreeNode} of group containing this group or null if this is the root. */
 		// public TreeNode getParent();
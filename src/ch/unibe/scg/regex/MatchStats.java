@@ -0,0 +1,127 @@
+package ch.unibe.scg.regex;
+
+/**
+ * Counters of the work done while matching. Not threadsafe.
+ *
+ * <p>There are two sources. {@link TDFAInterpreter#stats()} counts, per pattern, the work done to
+ * build the automaton, cumulatively and for all matchers. A pattern has settled once
+ * {@link #determinizations()} stops growing. A {@link TDFAMatcher} counts the work of each match,
+ * but only while it {@linkplain TDFAMatcher#collectStats collects stats}. Counters that a source
+ * does not count stay 0.
+ */
+public final class MatchStats {
+  long matches;
+  long compiledMatches;
+  long tableHits;
+  long determinizations;
+  long instructions;
+  long states;
+  long mappedStates;
+  long tableResizes;
+  long flushes;
+  long rejected;
+
+  /**
+   * @return calls of {@link TDFAMatcher#interpret} and {@link TDFAMatcher#find}, and streams
+   *         {@linkplain TDFAMatcher#feed(CharSequence) fed}. Counted by matchers.
+   */
+  public long matches() {
+    return matches;
+  }
+
+  /**
+   * @return the {@link #matches()} that ran on the automaton compiled to bytecode.
+   *         Counted by matchers.
+   */
+  public long compiledMatches() {
+    return compiledMatches;
+  }
+
+  /** @return transitions read from the table, without determinizing. Counted by matchers. */
+  public long tableHits() {
+    return tableHits;
+  }
+
+  /**
+   * @return transitions that were missing in the table. Matchers count every miss, patterns count
+   *         the transitions they determinized.
+   */
+  public long determinizations() {
+    return determinizations;
+  }
+
+  /** @return instructions executed on the table, not on compiled automata. Counted by matchers. */
+  public long instructions() {
+    return instructions;
+  }
+
+  /** @return the DFA states found. Counted by patterns. */
+  public long states() {
+    return states;
+  }
+
+  /**
+   * @return the {@link #determinizations()} that led to a known state, through a mapping.
+   *         Counted by patterns.
+   */
+  public long mappedStates() {
+    return mappedStates;
+  }
+
+  /** @return how often the transition table had to grow. Counted by patterns. */
+  public long tableResizes() {
+    return tableResizes;
+  }
+
+  /**
+   * @return how often all states were forgotten, because there were more than the budget. See
+   *         {@link TDFAInterpreter#setStateBudget}. Counted by patterns.
+   */
+  public long flushes() {
+    return flushes;
+  }
+
+  /**
+   * @return the {@link #matches()} that were decided without the automaton, because the input
+   *         lacks a literal that every match contains. Counted by matchers.
+   */
+  public long rejected() {
+    return rejected;
+  }
+
+  /** Add all counters of {@code that} to ours. */
+  public void add(MatchStats that) {
+    matches += that.matches;
+    compiledMatches += that.compiledMatches;
+    tableHits += that.tableHits;
+    determinizations += that.determinizations;
+    instructions += that.instructions;
+    states += that.states;
+    mappedStates += that.mappedStates;
+    tableResizes += that.tableResizes;
+    flushes += that.flushes;
+    rejected += that.rejected;
+  }
+
+  /** Set all counters to 0. */
+  public void reset() {
+    matches = 0;
+    compiledMatches = 0;
+    tableHits = 0;
+    determinizations = 0;
+    instructions = 0;
+    states = 0;
+    mappedStates = 0;
+    tableResizes = 0;
+    flushes = 0;
+    rejected = 0;
+  }
+
+  @Override
+  public String toString() {
+    return "matches=" + matches + " compiledMatches=" + compiledMatches + " tableHits=" + tableHits
+        + " determinizations=" + determinizations + " instructions=" + instructions
+        + " states=" + states + " mappedStates=" + mappedStates + " tableResizes=" + tableResizes
+        + " flushes=" + flushes + " rejected=" + rejected;
+  }
+}
@@ -0,0 +1,120 @@
+package ch.unibe.scg.regex;
+
+import java.util.Arrays;
+
+/**
+ * The memory cells of one matcher. Cell {@code r} holds the current value and the committed
+ * values of the history with {@link History#register} {@code r}. The committed values live in
+ * {@link #arena}, so that committing allocates nothing. Not threadsafe.
+ */
+final class Memory {
+  int[] cur;
+  /** The node in {@link #arena} of the latest committed value of each cell. -1 if there is none. */
+  int[] prev;
+  final Arena arena = new Arena();
+
+  Memory(final int size) {
+    cur = new int[size];
+    prev = new int[size];
+    Arrays.fill(prev, -1);
+  }
+
+  /** The cells named by some histories, at one point of a match. */
+  static final class Snapshot {
+    final int[] cur;
+    /** Nodes in the arena of the memory. Only valid until it is cleared. */
+    final int[] prev;
+
+    Snapshot(int[] cur, int[] prev) {
+      this.cur = cur;
+      this.prev = prev;
+    }
+  }
+
+  /** Grow to hold at least {@code size} cells. Cells that are new are empty. */
+  void ensureCapacity(final int size) {
+    if (size <= cur.length) {
+      return;
+    }
+    final int oldSize = cur.length;
+    final int newSize = Math.max(size, 2 * oldSize);
+    cur = Arrays.copyOf(cur, newSize);
+    prev = Arrays.copyOf(prev, newSize);
+    Arrays.fill(prev, oldSize, newSize, -1);
+  }
+
+  /** Empty all cells and the arena. */
+  void clear() {
+    Arrays.fill(cur, 0);
+    Arrays.fill(prev, -1);
+    arena.clear();
+  }
+
+  /**
+   * Keep the cells below {@code kept}, move cell {@code from[i]} to cell {@code to[i]} for all
+   * {@code i}, and empty all other cells. All cells are moved at once. The arena is kept.
+   */
+  void remap(final int kept, final int[] to, final int[] from) {
+    final int[] oldCur = cur;
+    final int[] oldPrev = prev;
+    int size = kept;
+    for (int r : to) {
+      size = Math.max(size, r + 1);
+    }
+    cur = new int[Math.max(size, oldCur.length)];
+    prev = new int[cur.length];
+    Arrays.fill(prev, -1);
+    final int k = Math.min(kept, oldCur.length);
+    System.arraycopy(oldCur, 0, cur, 0, k);
+    System.arraycopy(oldPrev, 0, prev, 0, k);
+    for (int i = 0; i < to.length; i++) {
+      if (from[i] < oldCur.length) { // Otherwise never written, and so empty.
+        cur[to[i]] = oldCur[from[i]];
+        prev[to[i]] = oldPrev[from[i]];
+      }
+    }
+  }
+
+  /** @return copies of the cells named by {@code histories}. Cells never written count as empty. */
+  Snapshot snapshot(final Arraylike histories) {
+    final int[] retCur = new int[histories.size()];
+    final int[] retPrev = new int[histories.size()];
+    int i = 0;
+    for (History h : histories) {
+      final int r = h.register;
+      if (r < 0 || r >= cur.length) { // Never written by this matcher.
+        retPrev[i] = -1;
+      } else {
+        retCur[i] = cur[r];
+        retPrev[i] = prev[r];
+      }
+      i++;
+    }
+    return new Snapshot(retCur, retPrev);
+  }
+
+  /** Like {@link #snapshot(Arraylike)}, but only of the histories from {@code from} to {@code to}. */
+  Snapshot snapshot(final Arraylike histories, final int from, final int to) {
+    final int[] retCur = new int[to - from];
+    final int[] retPrev = new int[to - from];
+    for (int i = from; i < to; i++) {
+      final int r = histories.get(i).register;
+      if (r < 0 || r >= cur.length) { // Never written by this matcher.
+        retPrev[i - from] = -1;
+      } else {
+        retCur[i - from] = cur[r];
+        retPrev[i - from] = prev[r];
+      }
+    }
+    return new Snapshot(retCur, retPrev);
+  }
+
+  /** @return the number of committed values of the cell named by {@code h}. */
+  int committedCount(final History h) {
+    final int r = h.register;
+    if (r < 0 || r >= cur.length) {
+      return 0;
+    }
+    return arena.length(prev[r]);
+  }
+}
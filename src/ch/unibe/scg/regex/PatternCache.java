@@ -0,0 +1,151 @@
+package ch.unibe.scg.regex;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiled patterns, by regex. Callers that compile the same regex get the same
+ * {@link TDFAInterpreter}, and with it all states that earlier callers determinized.
+ *
+ * <p>Threadsafe. Looking up a compiled pattern takes no lock. Threads that ask for the same
+ * missing regex at the same time wait for a single compile. Once there are more than
+ * {@link #maxPatterns()} patterns, the least recently used ones are dropped. Matchers of dropped
+ * patterns keep working.
+ */
+public final class PatternCache {
+  private static final PatternCache SHARED = new PatternCache(256);
+
+  private final int maxPatterns;
+  private final ConcurrentMap<String, Slot> slots = new ConcurrentHashMap<>();
+  /** Ticks once per lookup. Orders the slots by their last use. */
+  private final AtomicLong clock = new AtomicLong();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /** @param maxPatterns the most patterns to keep. At least 1. */
+  public PatternCache(int maxPatterns) {
+    if (maxPatterns < 1) {
+      throw new IllegalArgumentException("Need room for at least 1 pattern, not " + maxPatterns);
+    }
+    this.maxPatterns = maxPatterns;
+  }
+
+  /** @return the cache for the whole process. It keeps up to 256 patterns. */
+  public static PatternCache shared() {
+    return SHARED;
+  }
+
+  /** A pattern that is compiled at most once, by whoever asks for it first. */
+  private static final class Slot {
+    final String regex;
+    /** See {@link PatternCache#clock}. */
+    volatile long lastUsed;
+    private volatile TDFAInterpreter interpreter;
+
+    Slot(String regex, long lastUsed) {
+      this.regex = regex;
+      this.lastUsed = lastUsed;
+    }
+
+    TDFAInterpreter get() {
+      TDFAInterpreter ret = interpreter;
+      if (ret != null) {
+        return ret;
+      }
+      synchronized (this) {
+        if (interpreter == null) {
+          interpreter = TDFAInterpreter.compile(regex);
+        }
+        return interpreter;
+      }
+    }
+  }
+
+  /**
+   * @return {@code regex}, compiled by {@link TDFAInterpreter#compile(String)}, or as compiled for
+   *         an earlier caller.
+   */
+  public TDFAInterpreter compile(String regex) {
+    final long now = clock.incrementAndGet();
+    Slot slot = slots.get(regex);
+    if (slot != null) {
+      hits.incrementAndGet();
+    } else {
+      final Slot fresh = new Slot(regex, now);
+      slot = slots.putIfAbsent(regex, fresh);
+      if (slot == null) {
+        misses.incrementAndGet();
+        slot = fresh;
+        evict();
+      } else {
+        hits.incrementAndGet(); // Another thread was quicker, and compiles for us.
+      }
+    }
+    slot.lastUsed = now;
+
+    try {
+      return slot.get();
+    } catch (RuntimeException e) {
+      slots.remove(regex, slot); // Let the next caller try again, rather than keep the error.
+      throw e;
+    }
+  }
+
+  /**
+   * Drop least recently used slots until there is room. Scans all slots, but only runs on misses,
+   * which cost a compile anyway.
+   */
+  private void evict() {
+    while (slots.size() > maxPatterns) {
+      Map.Entry<String, Slot> oldest = null;
+      for (Map.Entry<String, Slot> e : slots.entrySet()) {
+        if (oldest == null || e.getValue().lastUsed < oldest.getValue().lastUsed) {
+          oldest = e;
+        }
+      }
+      if (oldest != null && slots.remove(oldest.getKey(), oldest.getValue())) {
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  /** @return the most patterns kept. */
+  public int maxPatterns() {
+    return maxPatterns;
+  }
+
+  /** @return the number of patterns kept now. */
+  public int size() {
+    return slots.size();
+  }
+
+  /** @return lookups that found their pattern, compiled or being compiled. */
+  public long hits() {
+    return hits.get();
+  }
+
+  /** @return lookups that had to compile their pattern. */
+  public long misses() {
+    return misses.get();
+  }
+
+  /** @return patterns dropped to make room for others. */
+  public long evictions() {
+    return evictions.get();
+  }
+
+  /** Drop all patterns. The counters keep counting. */
+  public void clear() {
+    slots.clear();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d patterns of at most %d, %d hits, %d misses, %d evictions", size(),
+        maxPatterns, hits(), misses(), evictions());
+  }
+}
@@ -0,0 +1,159 @@
+package ch.unibe.scg.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.unibe.scg.regex.ParserProvider.Node.Regex;
+
+/**
+ * Several patterns, matched at once. All patterns are merged into one TNFA, with a final state
+ * per pattern, which is determinized lazily, as a {@link TDFAInterpreter} would. A single pass
+ * over the input tells which patterns match it, and how.
+ *
+ * <p>Every pattern must match the entire input, as in {@link TDFAMatcher#interpret}, and every
+ * pattern matches as if it was alone. Threadsafe, like {@link TDFAInterpreter}. Get a
+ * {@link Matcher} per thread.
+ */
+public final class PatternSet {
+  private final List<String> regexes;
+  /** Runs the combined automaton. */
+  final TDFAInterpreter interpreter;
+  /** The index of the pattern that ends in each final state. */
+  private final Map<State, Integer> patternOf = new HashMap<>();
+  /** The first capture group of each pattern, and the end of those of the last pattern. */
+  private final int[] firstGroups;
+  /** {@link TDFAInterpreter#parentOf} of each pattern, numbered as if it was alone. */
+  private final int[][] parentOf;
+
+  PatternSet(List<String> regexes, List<? extends Regex> parsed) {
+    this.regexes = Collections.unmodifiableList(new ArrayList<>(regexes));
+    final TNFA tnfa = new RegexToNFA().convertSet(parsed);
+    interpreter = new TDFAInterpreter(regexes.toString(), TNFAToTDFA.make(tnfa), null);
+
+    for (int i = 0; i < tnfa.acceptingStates.size(); i++) {
+      patternOf.put(tnfa.acceptingStates.get(i), i);
+    }
+    firstGroups = Arrays.copyOf(tnfa.firstGroups, parsed.size() + 1);
+    firstGroups[parsed.size()] = interpreter.parentOf.length;
+
+    parentOf = new int[parsed.size()][];
+    for (int i = 0; i < parsed.size(); i++) {
+      final int first = firstGroups[i];
+      parentOf[i] = new int[firstGroups[i + 1] - first];
+      for (int g = 0; g < parentOf[i].length; g++) {
+        parentOf[i][g] = interpreter.parentOf[first + g] - first;
+      }
+    }
+  }
+
+  /** @return all {@code regexes}, compiled into one set. Pattern {@code i} is {@code regexes[i]}. */
+  public static PatternSet compile(String... regexes) {
+    return compile(Arrays.asList(regexes));
+  }
+
+  /** @return all {@code regexes}, compiled into one set. Pattern {@code i} is {@code regexes.get(i)}. */
+  public static PatternSet compile(List<String> regexes) {
+    if (regexes.isEmpty()) {
+      throw new IllegalArgumentException("A set needs at least one pattern.");
+    }
+    final ParserProvider parser = new ParserProvider();
+    final List<Regex> parsed = new ArrayList<>(regexes.size());
+    for (String regex : regexes) {
+      parsed.add(parser.regexp().parse(regex));
+    }
+    return new PatternSet(regexes, parsed);
+  }
+
+  /** @return the number of patterns. */
+  public int size() {
+    return regexes.size();
+  }
+
+  /** @return the regexes of all patterns, in order. */
+  public List<String> regexes() {
+    return regexes;
+  }
+
+  /** @return a new matcher. Matchers are cheap, but must only be used by one thread at a time. */
+  public Matcher matcher() {
+    return new Matcher();
+  }
+
+  /** Shorthand for {@code matcher().matching(input)}. */
+  public BitSet matching(CharSequence input) {
+    return matcher().matching(input);
+  }
+
+  /** See {@link TDFAInterpreter#setStateBudget}. */
+  public void setStateBudget(int maxStates) {
+    interpreter.setStateBudget(maxStates);
+  }
+
+  /** @return the work done so far to build the combined automaton. See {@link MatchStats}. */
+  public MatchStats stats() {
+    return interpreter.stats();
+  }
+
+  /**
+   * Matches input against all patterns of the set. Owns memory cells, so it must only be used by
+   * one thread at a time.
+   */
+  public final class Matcher {
+    private final TDFAMatcher matcher = interpreter.matcher();
+
+    private Matcher() {} // Use PatternSet.matcher().
+
+    /** See {@link TDFAMatcher#collectStats}. */
+    public void collectStats(MatchStats stats) {
+      matcher.collectStats(stats);
+    }
+
+    /** @return the patterns that match the entire {@code input}. Bit {@code i} is pattern {@code i}. */
+    public BitSet matching(CharSequence input) {
+      final BitSet ret = new BitSet(size());
+      final DFAState end = matcher.run(input);
+      if (end == null) {
+        return ret;
+      }
+      for (RThread t : end.threads) {
+        final Integer pattern = patternOf.get(t.state);
+        if (pattern != null) {
+          ret.set(pattern);
+        }
+      }
+      return ret;
+    }
+
+    /**
+     * @return the match of the entire {@code input} by every pattern, in order. Patterns that
+     *         don't match have {@link RealMatchResult.NoMatchResult#SINGLETON}. Groups are numbered
+     *         as if each pattern was compiled alone.
+     */
+    public List<MatchResultTree> interpret(CharSequence input) {
+      final MatchResultTree[] ret = new MatchResultTree[size()];
+      Arrays.fill(ret, RealMatchResult.NoMatchResult.SINGLETON);
+      final DFAState end = matcher.run(input);
+      if (end != null) {
+        for (RThread t : end.threads) {
+          final Integer pattern = patternOf.get(t.state);
+          if (pattern != null) {
+            final Memory.Snapshot fin = matcher.memory.snapshot(t.histories,
+                2 * firstGroups[pattern], 2 * firstGroups[pattern + 1]);
+            ret[pattern] = RealMatchResult.of(fin, matcher.memory.arena, input, parentOf[pattern]);
+          }
+        }
+      }
+      return Arrays.asList(ret);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return regexes.toString();
+  }
+}
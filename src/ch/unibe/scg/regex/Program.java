@@ -0,0 +1,68 @@
+package ch.unibe.scg.regex;
+
+/**
+ * Instructions, lowered to a flat array of opcodes and operands, for a register machine whose
+ * registers are the memory cells of {@link Memory}. Executing a program is a single loop over one
+ * switch, instead of one virtual call per instruction.
+ *
+ * <p>Programs are immutable once made, and therefore shareable.
+ */
+final class Program {
+  /** {@code SET r k}: {@code cur[r] = pos + k}. */
+  static final int SET = 0;
+  /** {@code REORDER t f}: {@code cur[t] = cur[f]; prev[t] = prev[f]}. */
+  static final int REORDER = 1;
+  /** {@code COMMIT r}: Push {@code cur[r]} onto the committed values in {@code prev[r]}. */
+  static final int COMMIT = 2;
+
+  static final int[] EMPTY = new int[0];
+
+  private Program() {} // Not instantiable.
+
+  /** @return the opcodes of {@code instructions}. */
+  static int[] of(Instruction[] instructions) {
+    if (instructions.length == 0) {
+      return EMPTY;
+    }
+    int size = 0;
+    for (Instruction i : instructions) {
+      size += i.opcodes().length;
+    }
+    final int[] ret = new int[size];
+    int pc = 0;
+    for (Instruction i : instructions) {
+      final int[] opcodes = i.opcodes();
+      System.arraycopy(opcodes, 0, ret, pc, opcodes.length);
+      pc += opcodes.length;
+    }
+    return ret;
+  }
+
+  /** Run {@code program} for the input at {@code pos}. */
+  static void execute(int[] program, int pos, Memory memory) {
+    final int[] cur = memory.cur;
+    final int[] prev = memory.prev;
+    final Arena arena = memory.arena;
+    int pc = 0;
+    while (pc < program.length) {
+      switch (program[pc]) {
+        case SET:
+          cur[program[pc + 1]] = pos + program[pc + 2];
+          pc += 3;
+          break;
+        case REORDER:
+          cur[program[pc + 1]] = cur[program[pc + 2]];
+          prev[program[pc + 1]] = prev[program[pc + 2]];
+          pc += 3;
+          break;
+        case COMMIT:
+          final int r = program[pc + 1];
+          prev[r] = arena.push(cur[r], prev[r]);
+          pc += 2;
+          break;
+        default:
+          throw new AssertionError("Unknown opcode " + program[pc] + " at " + pc);
+      }
+    }
+  }
+}
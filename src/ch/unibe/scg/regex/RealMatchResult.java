@@ -1,24 +1,42 @@
 package ch.unibe.scg.regex;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
 
-import ch.unibe.scg.regex.IntIterable.IntIterator;
-
 class RealMatchResult implements MatchResultTree {
-  final Arraylike captureGroupPositions;
+  /** The uncommitted value of every tag. */
+  final int[] cur;
+  /**
+   * The committed values of tag {@code t} are {@code committed[offsets[t]]} up to, but excluding,
+   * {@code committed[offsets[t + 1]]}, latest first.
+   */
+  final int[] offsets;
+  final int[] committed;
   /** The parent capture group number `t` is parentOf[t]. */
   final int[] parentOf;
+  /** Null if the input was streamed. */
   final CharSequence input;
-
-  RealMatchResult(Arraylike fin, CharSequence input, int[] parentOf) {
-    this.captureGroupPositions = fin;
+  /** See {@link #childGroups()}. Made on first use. */
+  private volatile int[][] childGroups;
+
+  RealMatchResult(int[] cur, int[] offsets, int[] committed, CharSequence input, int[] parentOf) {
+    assert offsets.length == cur.length + 1;
+    this.cur = cur;
+    this.offsets = offsets;
+    this.committed = committed;
     this.input = input;
     this.parentOf = parentOf;
   }
 
+  /** @return the result for {@code fin}, with its committed values copied out of {@code arena}. */
+  static RealMatchResult of(Memory.Snapshot fin, Arena arena, CharSequence input, int[] parentOf) {
+    final int[] offsets = new int[fin.cur.length + 1];
+    return new RealMatchResult(fin.cur, offsets, arena.flatten(fin.prev, offsets), input, parentOf);
+  }
+
   static enum NoMatchResult implements MatchResultTree {
     SINGLETON;
 
@@ -71,21 +89,51 @@ class RealMatchResult implements MatchResultTree {
     }
   }
 
-  class RealTreeNode implements TreeNode, Comparable<RealTreeNode>  {
+  /**
+   * The {@code k}th match of a capture group, earliest first. Its children are only looked up in
+   * the committed values when asked for, and kept from then on, so that a caller pays only for the
+   * nodes it visits.
+   */
+  class RealTreeNode implements TreeNode {
     final private int captureGroup;
-    final List<TreeNode> children = new ArrayList<>();
+    final private int k;
     final int from;
     final int to;
+    private volatile List<TreeNode> children;
 
-    RealTreeNode(int captureGroup, int from, int to) {
+    RealTreeNode(int captureGroup, int k) {
       this.captureGroup = captureGroup;
-      this.from = from;
-      this.to = to;
+      this.k = k;
+      this.from = startOf(captureGroup, k);
+      this.to = endOf(captureGroup, k);
     }
 
     @Override
-    public Iterable<TreeNode> getChildren() {
-      return children;
+    public List<TreeNode> getChildren() {
+      List<TreeNode> ret = children;
+      if (ret == null) {
+        ret = findChildren();
+        children = ret;
+      }
+      return ret;
+    }
+
+    /**
+     * A child belongs to the last match of its parent group that starts no later than the child.
+     * So the children in every child group are those that start between this match and the next
+     * match of this group.
+     */
+    private List<TreeNode> findChildren() {
+      final List<TreeNode> ret = new ArrayList<>();
+      final boolean last = k + 1 == count(captureGroup);
+      for (int group : childGroups()[captureGroup]) {
+        final int lo = firstStartingAt(group, from);
+        final int hi = last ? count(group) : firstStartingAt(group, startOf(captureGroup, k + 1));
+        for (int i = lo; i < hi; i++) {
+          ret.add(new RealTreeNode(group, i));
+        }
+      }
+      return Collections.unmodifiableList(ret);
     }
 
     @Override
@@ -94,16 +142,97 @@ class RealMatchResult implements MatchResultTree {
     }
 
     @Override
-    public String toString() {
-      return input.subSequence(from, to).toString();
+    public int start() {
+      return from;
+    }
+
+    @Override
+    public int end() {
+      return to;
+    }
+
+    @Override
+    public CharSequence span() {
+      return RealMatchResult.span(input, from, to);
     }
 
+    /** Copies the span, as a string has to. See {@link TreeNode#toString()}. */
     @Override
-    public int compareTo(RealTreeNode that) {
-      return Integer.compare(this.from, that.from);
+    public String toString() {
+      if (input == null) {
+        return "" + from + "-" + (to - 1);
+      }
+      return span().toString();
     }
   }
 
+  /**
+   * @return the chars {@code from} to {@code to} of {@code input}, as a view, without copying.
+   *         Views of bytes decode them when printed, see {@link Utf8.Bytes}.
+   * @throws UnsupportedOperationException if the input was streamed, and is null.
+   */
+  static CharSequence span(CharSequence input, int from, int to) {
+    if (input == null) {
+      throw new UnsupportedOperationException("The input was streamed, and not kept.");
+    }
+    if (input instanceof Utf8.Bytes) {
+      return input.subSequence(from, to);
+    }
+    return CharBuffer.wrap(input, from, to);
+  }
+
+  /** @return the number of matches of {@code group}. */
+  int count(int group) {
+    return offsets[2 * group + 1] - offsets[2 * group];
+  }
+
+  /** @return the start of the {@code k}th match of {@code group}, earliest first. */
+  private int startOf(int group, int k) {
+    return committed[offsets[2 * group] + count(group) - 1 - k];
+  }
+
+  /** @return the index after the end of the {@code k}th match of {@code group}, earliest first. */
+  private int endOf(int group, int k) {
+    return committed[offsets[2 * group + 1] + count(group) - 1 - k] + 1;
+  }
+
+  /** @return the first match of {@code group} that starts at or after {@code pos}. */
+  private int firstStartingAt(int group, int pos) {
+    int lo = 0;
+    int hi = count(group);
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (startOf(group, mid) < pos) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /** @return the capture groups whose parent is {@code g}, in order, at index {@code g}. */
+  private int[][] childGroups() {
+    int[][] ret = childGroups;
+    if (ret != null) {
+      return ret;
+    }
+    final int[] counts = new int[parentOf.length];
+    for (int g = 1; g < parentOf.length; g++) {
+      counts[parentOf[g]]++;
+    }
+    ret = new int[parentOf.length][];
+    for (int g = 0; g < parentOf.length; g++) {
+      ret[g] = new int[counts[g]];
+      counts[g] = 0;
+    }
+    for (int g = 1; g < parentOf.length; g++) {
+      ret[parentOf[g]][counts[parentOf[g]]++] = g;
+    }
+    childGroups = ret;
+    return ret;
+  }
+
   @Override
   public int end() {
     return end(0);
@@ -111,7 +240,7 @@ class RealMatchResult implements MatchResultTree {
 
   @Override
   public int end(final int group) {
-    return captureGroupPositions.get(group * 2 + 1).iterator().next();
+    return cur[group * 2 + 1];
   }
 
   @Override
@@ -121,12 +250,15 @@ class RealMatchResult implements MatchResultTree {
 
   @Override
   public String group(final int group) {
+    if (input == null) {
+      throw new UnsupportedOperationException("The input was streamed, and not kept.");
+    }
     return input.subSequence(start(group), end(group)).toString();
   }
 
   @Override
   public int groupCount() {
-    return captureGroupPositions.size() / 2;
+    return cur.length / 2;
   }
 
   @Override
@@ -136,7 +268,7 @@ class RealMatchResult implements MatchResultTree {
 
   @Override
   public int start(final int group) {
-    return captureGroupPositions.get(group * 2).iterator().next();
+    return cur[group * 2];
   }
 
   @Override
@@ -144,47 +276,40 @@ class RealMatchResult implements MatchResultTree {
     return "" + start() + "-" + end();
   }
 
-  @Override
-  public TreeNode getRoot() {
-    // copy captureGroupPositions into hs, then move all histories one step down,
-    // to see only committed values.
-    History[] hs = new History[captureGroupPositions.size()];
-    int i = 0;
-    for (History h: captureGroupPositions) {
-      if (h != null) {
-        hs[i] = h.prev;
-      }
-      i++;
-    }
-
-    // Copy the input, which is an array of linked lists into an array of arrays.
-    List<List<RealTreeNode>> cols = new ArrayList<>(parentOf.length);
-    for (int col = 0; col < parentOf.length; col++) {
-      List<RealTreeNode> curCol = new ArrayList<>();
-        while (hs[2 * col] != null) {
-          curCol.add(new RealTreeNode(col, hs[2*col].cur, hs[2*col + 1].cur + 1));
-
-          // Forward
-          hs[2 * col] = hs[2 * col].prev;
-          hs[2 * col + 1] = hs[2 * col + 1].prev;
-        }
-        Collections.reverse(curCol); // Prefer ascending order.
-        cols.add(curCol);
-    }
+  /** Sends the tree to {@code visitor}, in document order. See {@link TreeVisitor}. */
+  void accept(TreeVisitor visitor) {
+    accept(visitor, childGroups(), new int[parentOf.length], 0, 0);
+  }
 
-    for (int col = 1; col < cols.size(); col++) {
-      // in parent column, find only(!) matching parent
-      for (RealTreeNode n : cols.get(col)) {
-        List<RealTreeNode> parentCol = cols.get(parentOf[col]);
-        int idx = Collections.binarySearch(parentCol, n);
-        if (idx < 0) { // the `from` index of n isn't the same as the `from` index of parent.
-          idx = ~idx - 1; // One before insertion point.
-        }
-        parentCol.get(idx).children.add(n);
+  /**
+   * Sends match {@code k} of group {@code g}, and then its descendants. Matches of a group are
+   * visited in order, so the children in every child group {@code c} are the next matches after
+   * {@code next[c]}, up to the first that starts at the next match of {@code g}. That's the rule
+   * of {@link RealTreeNode#getChildren()}, in linear time.
+   *
+   * <p>Recursion is only as deep as the nesting of groups in the regex.
+   */
+  private void accept(TreeVisitor visitor, int[][] childGroups, int[] next, int g, int k) {
+    final int from = startOf(g, k);
+    visitor.enterGroup(g, from);
+    next[g] = k + 1;
+
+    final int limit = k + 1 == count(g) ? Integer.MAX_VALUE : startOf(g, k + 1);
+    for (int c : childGroups[g]) {
+      while (next[c] < count(c) && startOf(c, next[c]) < from) {
+        next[c]++; // Starts before its parent. Can't happen, but nodes leave it out, too.
+      }
+      while (next[c] < count(c) && startOf(c, next[c]) < limit) {
+        accept(visitor, childGroups, next, c, next[c]);
       }
     }
+    visitor.exitGroup(g, endOf(g, k));
+  }
 
-    return cols.get(0).get(0); // The root is in capture group 0, which has only one entry.
+  /** @return the root. Its descendants are found as they are visited. */
+  @Override
+  public TreeNode getRoot() {
+    return new RealTreeNode(0, 0); // Capture group 0 has only one entry.
   }
 
   /**
@@ -193,12 +318,10 @@ class RealMatchResult implements MatchResultTree {
    */
   String matchPositionsDebugString() {
     StringBuilder ret = new StringBuilder();
-    for (History h : captureGroupPositions) {
+    for (int t = 0; t < cur.length; t++) {
       ret.append('(');
-      IntIterator iter = h.iterator();
-      iter.next(); // Ignore uncommitted.
-      while (iter.hasNext()) {
-        ret.append(iter.next());
+      for (int i = offsets[t]; i < offsets[t + 1]; i++) {
+        ret.append(committed[i]);
         ret.append(", ");
       }
       ret.append(") ");
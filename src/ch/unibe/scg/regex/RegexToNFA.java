@@ -32,6 +32,18 @@ class RegexToNFA {
   final InputRangeCleanup inputRangeCleanup = new InputRangeCleanup();
 
   TNFA convert(final Node node) {
+    return convert(node, false);
+  }
+
+  /**
+   * Like {@link #convert(Node)}, but the match may start anywhere in the input. The input
+   * before the match is skipped by the states in {@link TNFA#prefixStates}.
+   */
+  TNFA convertUnanchored(final Node node) {
+    return convert(node, true);
+  }
+
+  private TNFA convert(final Node node, final boolean unanchored) {
     Collection<InputRange> allInputRanges = new ArrayList<>();
     allInputRanges.add(InputRange.ANY); // All regexes contain this implicitly.
     findRanges(node, allInputRanges);
@@ -39,8 +51,12 @@ class RegexToNFA {
 
     builder.registerCaptureGroup(builder.captureGroupMaker.entireMatch);
 
-    final MiniAutomaton m =
-        makeInitialMiniAutomaton(builder, builder.captureGroupMaker.entireMatch);
+    final MiniAutomaton m;
+    if (unanchored) {
+      m = makeUnanchoredInitialMiniAutomaton(builder, builder.captureGroupMaker.entireMatch);
+    } else {
+      m = makeInitialMiniAutomaton(builder, builder.captureGroupMaker.entireMatch);
+    }
 
     final MiniAutomaton a = make(m, builder, node, builder.captureGroupMaker.entireMatch);
 
@@ -52,6 +68,45 @@ class RegexToNFA {
     return builder.build();
   }
 
+  /**
+   * Several patterns in one automaton, each anchored, each with a final state of its own: pattern
+   * {@code i} ends in {@code acceptingStates.get(i)}. Its capture groups are numbered from
+   * {@code firstGroups[i]}, its entire match, to just before those of the next pattern. The threads
+   * of different patterns never share a state, so each pattern matches as if it was alone.
+   *
+   * @see TNFA#acceptingStates
+   */
+  TNFA convertSet(final List<? extends Node> nodes) {
+    Collection<InputRange> allInputRanges = new ArrayList<>();
+    allInputRanges.add(InputRange.ANY); // All regexes contain this implicitly.
+    for (Node node : nodes) {
+      findRanges(node, allInputRanges);
+    }
+    final Builder builder = Builder.make(allInputRanges);
+    final State init = builder.makeInitialState();
+
+    for (int i = 0; i < nodes.size(); i++) {
+      final CaptureGroup entireMatch;
+      if (i == 0) {
+        entireMatch = builder.captureGroupMaker.entireMatch;
+      } else {
+        entireMatch = builder.makeCaptureGroup(null);
+        entireMatch.parent = entireMatch;
+      }
+      builder.registerCaptureGroup(entireMatch);
+
+      final State startTagger = builder.makeState();
+      builder.addStartTagTransition(singleton(init), startTagger, entireMatch, Priority.NORMAL);
+      final MiniAutomaton a = make(new MiniAutomaton(singleton(init), startTagger), builder,
+          nodes.get(i), entireMatch);
+
+      final State endTagger = builder.makeState();
+      builder.addEndTagTransition(a.finishing, endTagger, entireMatch, Priority.NORMAL);
+      builder.addAccepting(endTagger, entireMatch);
+    }
+    return builder.build();
+  }
+
   private void findRanges(Node n, Collection<InputRange> out) {
     if (n instanceof Node.SetItem) {
       out.add(((SetItem) n).inputRange);
@@ -164,6 +219,20 @@ class RegexToNFA {
     return new MiniAutomaton(singleton(init), singleton(startTagger));
   }
 
+  /** Like {@link #makeInitialMiniAutomaton}, but skips input first, like {@code .*?} would. */
+  MiniAutomaton makeUnanchoredInitialMiniAutomaton(final Builder builder, CaptureGroup entireMatch) {
+    final State init = builder.makeInitialState();
+    final State skip = builder.makeState();
+    final State startTagger = builder.makeState();
+    // Prefer starting the match over skipping another character.
+    builder.addStartTagTransition(singleton(init), startTagger, entireMatch, Priority.NORMAL);
+    builder.makeUntaggedEpsilonTransitionFromTo(singleton(init), singleton(skip), Priority.LOW);
+    builder.addUntaggedTransition(InputRange.ANY, singleton(skip), init);
+    builder.prefixStates.add(init);
+    builder.prefixStates.add(skip);
+    return new MiniAutomaton(singleton(init), singleton(startTagger));
+  }
+
   MiniAutomaton makeOptional(final MiniAutomaton last, final Builder builder,
       final Optional optional, CaptureGroup captureGroup) {
     final MiniAutomaton ma = make(last, builder, optional.elementary, captureGroup);
@@ -1,182 +1,619 @@
 package ch.unibe.scg.regex;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableSet;
-import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import ch.unibe.scg.regex.ParserProvider.Node.Regex;
-import ch.unibe.scg.regex.TDFATransitionTable.NextDFAState;
-import ch.unibe.scg.regex.TDFATransitionTable.NextState;
+import ch.unibe.scg.regex.TDFATransitionTable.Builder.Entry;
 import ch.unibe.scg.regex.TNFAToTDFA.StateAndInstructions;
 
-/** Interprets the known TDFA states. Compiles missing states on the fly. */
+/**
+ * A compiled regex. Holds the known TDFA states and compiles missing states on the fly.
+ *
+ * <p>Threadsafe. The lazily built automaton is shared by all {@link TDFAMatcher}s of the same
+ * interpreter, so that states found by one matcher are available to all others. Matching itself
+ * happens in the matchers, which keep the memory cells.
+ */
 // TODO: Rename to Pattern. Make public.
 public class TDFAInterpreter {
-  private static final int COMPILE_THRESHOLD = 2;
-
-  final NavigableSet<DFAState> states = new TreeSet<>();
-
-  final TDFATransitionTable.Builder tdfaBuilder = new TDFATransitionTable.Builder();
+  /** The known states. Replaced when the cache is flushed. */
+  DFAStateTable states = new DFAStateTable();
+
+  /** The regex this was compiled from, for diagnostics. Null if there is none. */
+  final String regex;
+  /** Literals that every match contains. See {@link TDFAMatcher#interpret}. */
+  final Literals literals;
+  /** True if the automaton reads UTF-8 bytes. See {@link #compileUtf8}. */
+  final boolean utf8;
+  /** Replaced when the cache is flushed. See {@link #setStateBudget}. */
+  volatile TDFATransitionTable.Builder tdfaBuilder;
   final InputRangeCleanup inputRangeCleanup = new InputRangeCleanup();
+  /** Null if the automaton was loaded. Then it is complete, and nothing is left to determinize. */
   final TNFAToTDFA tnfa2tdfa;
+  /** Memory cells of loaded automata. See {@link #registerCount()}. */
+  private final int loadedRegisterCount;
+  /**
+   * The cells below are named by the histories of {@link #startState}, and no others. They
+   * survive flushes; all others are handed out again.
+   */
+  private final int startRegisters;
+
+  final List<InputRange> inputRanges;
+  /** Classifies input chars into {@link #inputRanges}. */
+  final CharClassifier classifier;
+  final DFAState startState;
+  /** The state in the tables of {@link #tdfaBuilder} that stands for {@link #startState}. */
+  final int startTdfaState;
+  final Instruction[] startInstructions;
+  /** {@link #startInstructions}, as opcodes. */
+  final int[] startProgram;
+  /** See {@link TNFAToTDFA#makeParentOf()}. */
+  final int[] parentOf;
+
+  /** Unanchored version of the automaton, for searching. Null if there is none. */
+  private final TNFA searchTnfa;
+  /** Interprets {@link #searchTnfa}. Built on first use. */
+  private TDFAInterpreter searcher;
+  /** Cache for {@link #withoutPrefix}. */
+  private final Map<DFAState, DFAState> withoutPrefix = new HashMap<>();
+
+  /** True if all reachable states and transitions are in the table. See {@link #explore}. */
+  private volatile boolean complete = false;
+  /** The complete automaton, compiled to bytecode. Null if there is none. */
+  private volatile CompiledTDFA compiled;
+
+  /** See {@link MatchStats#determinizations()}. */
+  private long determinizations = 0;
+  /** See {@link MatchStats#mappedStates()}. */
+  private long mappedStates = 0;
+  /** See {@link MatchStats#flushes()}. */
+  private long flushes = 0;
+  /** Resizes of the tables that were flushed. */
+  private int flushedResizes = 0;
+  /** Flush the cache before determinizing once there are this many states. */
+  private int stateBudget = Integer.MAX_VALUE;
 
   TDFAInterpreter(TNFAToTDFA tnfa2tdfa) {
+    this(null, tnfa2tdfa, null);
+  }
+
+  TDFAInterpreter(String regex, TNFAToTDFA tnfa2tdfa, TNFA searchTnfa) {
+    this(regex, Literals.NONE, tnfa2tdfa, searchTnfa);
+  }
+
+  TDFAInterpreter(String regex, Literals literals, TNFAToTDFA tnfa2tdfa, TNFA searchTnfa) {
+    this.regex = regex;
+    this.literals = literals;
+    utf8 = tnfa2tdfa.tnfa.utf8;
     this.tnfa2tdfa = tnfa2tdfa;
+    this.searchTnfa = searchTnfa;
+    loadedRegisterCount = -1;
+    inputRanges = inputRangeCleanup.cleanUp(tnfa2tdfa.tnfa.allInputRanges());
+    classifier = new CharClassifier(inputRanges);
+    tdfaBuilder = new TDFATransitionTable.Builder(classifier);
+    List<RThread> startUnexpanded = tnfa2tdfa.convertToDfaState(tnfa2tdfa.tnfa.initialState);
+    StateAndInstructions start = tnfa2tdfa.oneStep(startUnexpanded, null);
+    startState = start.dfaState;
+    for (RThread t : startState.threads) {
+      for (History h : t.histories) {
+        tnfa2tdfa.instructionMaker.register(h);
+      }
+    }
+    if (startState.finalHistories != null) {
+      for (History h : startState.finalHistories) {
+        tnfa2tdfa.instructionMaker.register(h);
+      }
+    }
+    startRegisters = tnfa2tdfa.instructionMaker.registerCount();
+    startInstructions = start.instructions.toArray(new Instruction[start.instructions.size()]);
+    startProgram = Program.of(startInstructions);
+    states.intern(startState);
+    startTdfaState = tdfaBuilder.stateFor(startState);
+    parentOf = tnfa2tdfa.makeParentOf();
   }
 
+  /**
+   * A complete automaton, as loaded by {@link AutomatonFile}. Runs compiled to bytecode, if the
+   * JVM allows and {@code compile} is set. Searchers run on the table, as usual.
+   *
+   * @param builder holds all transitions. Its state 0 is the start state.
+   * @param withoutPrefix {@link #withoutPrefix} of all final states.
+   * @param searcher null if the automaton can't search.
+   */
+  TDFAInterpreter(String regex, Literals literals, TDFATransitionTable.Builder builder,
+      int registerCount, Instruction[] startInstructions, int[] parentOf,
+      Map<DFAState, DFAState> withoutPrefix, TDFAInterpreter searcher, boolean compile) {
+    this.regex = regex;
+    this.literals = literals;
+    utf8 = false; // Only eagerly compiled automata can be saved, and those read chars.
+    tnfa2tdfa = null;
+    searchTnfa = null;
+    loadedRegisterCount = registerCount;
+    startRegisters = registerCount;
+    tdfaBuilder = builder;
+    classifier = builder.classes;
+    inputRanges = new ArrayList<>(classifier.size());
+    for (int c = 0; c < classifier.size(); c++) {
+      inputRanges.add(classifier.range(c));
+    }
+    startState = builder.table().deoptimized(0);
+    startTdfaState = 0;
+    states.intern(startState);
+    this.startInstructions = startInstructions;
+    startProgram = Program.of(startInstructions);
+    this.parentOf = parentOf;
+    this.withoutPrefix.putAll(withoutPrefix);
+    this.searcher = searcher;
+    complete = true;
+    if (compile) {
+      compiled = CompiledTDFA.compile(builder.table(), builder.mapping.deoptimized.size(),
+          registerCount);
+    }
+  }
+
+  /**
+   * @return {@code regex}, compiled anew. Callers that compile the same regexes over and over should
+   *         use a {@link PatternCache}, which also keeps the states they determinized.
+   */
   public static TDFAInterpreter compile(String regex) {
+    return compile(regex, false);
+  }
+
+  /**
+   * Like {@link #compile(String)}, but the automaton reads UTF-8 bytes rather than chars, and
+   * positions are byte offsets. Match buffers with {@link TDFAMatcher#interpret(java.nio.ByteBuffer)},
+   * which reads them in place. Char sequences are read as one byte per char.
+   *
+   * <p>A range of chars matches the bytes of every char in it. {@code .} matches a whole
+   * supplementary code point, rather than half of it. Invalid UTF-8 doesn't match.
+   */
+  public static TDFAInterpreter compileUtf8(String regex) {
+    return compile(regex, true);
+  }
+
+  private static TDFAInterpreter compile(String regex, boolean utf8) {
+    Events.CompilePhase phase = Events.beginPhase();
     final Regex parsed = new ParserProvider().regexp().parse(regex);
-    final TNFA tnfa = new RegexToNFA().convert(parsed);
-    return new TDFAInterpreter(TNFAToTDFA.make(tnfa));
-  }
-
-  /** @return the range containing input. Null if there isn't one. */
-  InputRange findInputRange(List<InputRange> ranges, char input) {
-    int l = 0;
-    int r = ranges.size() - 1;
-    while (l <= r) {
-      final int m = (l + r) / 2;
-      final InputRange splitPoint = ranges.get(m);
-      if (splitPoint.contains(input)) {
-        return splitPoint;
-      } else if (input < splitPoint.getFrom()) {
-        r = m - 1;
-      } else {
-        l = m + 1;
+    Events.endPhase(phase, regex, "parse", null, 0);
+
+    phase = Events.beginPhase();
+    TNFA tnfa = new RegexToNFA().convert(parsed);
+    Events.endPhase(phase, regex, "RegexToNFA.convert", tnfa, 0);
+
+    phase = Events.beginPhase();
+    TNFA searchTnfa = new RegexToNFA().convertUnanchored(parsed);
+    Events.endPhase(phase, regex, "RegexToNFA.convertUnanchored", searchTnfa, 0);
+
+    if (utf8) {
+      phase = Events.beginPhase();
+      tnfa = tnfa.toUtf8();
+      Events.endPhase(phase, regex, "TNFA.toUtf8", tnfa, 0);
+
+      phase = Events.beginPhase();
+      searchTnfa = searchTnfa.toUtf8();
+      Events.endPhase(phase, regex, "TNFA.toUtf8 (unanchored)", searchTnfa, 0);
+    }
+
+    phase = Events.beginPhase();
+    final Literals literals = utf8 ? Literals.of(parsed).utf8() : Literals.of(parsed);
+    Events.endPhase(phase, regex, "Literals.of", null, 0);
+
+    phase = Events.beginPhase();
+    final TNFAToTDFA tnfa2tdfa = TNFAToTDFA.make(tnfa);
+    Events.endPhase(phase, regex, "TNFAToTDFA.make", tnfa, 0);
+
+    phase = Events.beginPhase();
+    final TDFAInterpreter ret = new TDFAInterpreter(regex, literals, tnfa2tdfa, searchTnfa);
+    Events.endPhase(phase, regex, "TDFAInterpreter.new", tnfa,
+        ret.tdfaBuilder.mapping.deoptimized.size());
+    return ret;
+  }
+
+  /**
+   * Like {@link #compile(String)}, but determinizes the whole automaton up front, both for
+   * matching and for searching, so that matching never has to stop for it. If the automaton has
+   * more than {@code maxStates} states, the rest is left to be determinized on the fly, as usual.
+   *
+   * <p>If the automaton is complete, {@link #interpret} runs on it compiled to bytecode.
+   */
+  public static TDFAInterpreter compileEagerly(String regex, int maxStates) {
+    final TDFAInterpreter ret = compile(regex);
+    if (ret.explore(maxStates)) {
+      synchronized (ret) {
+        ret.compiled = CompiledTDFA.compile(ret.table(), ret.tdfaBuilder.mapping.deoptimized.size(),
+            ret.registerCount());
       }
     }
+    ret.searcher().explore(maxStates);
+    return ret;
+  }
+
+  /** @return the automaton compiled to bytecode, or null if there is none. */
+  CompiledTDFA compiled() {
+    return compiled;
+  }
 
-    return null; // Found nothing
+  /**
+   * @return true if the automaton is fully determinized, so that every transition missing in
+   *         {@link #table()} leads to no match.
+   */
+  public boolean isComplete() {
+    return complete;
   }
 
+  /** @return true if {@link #interpret} runs on the automaton compiled to bytecode. */
+  public boolean isCompiled() {
+    return compiled != null;
+  }
+
+  /** @return a new matcher. Matchers are cheap, but must only be used by one thread at a time. */
+  public TDFAMatcher matcher() {
+    return new TDFAMatcher(this);
+  }
+
+  /** Shorthand for {@code matcher().interpret(input)}. */
   public MatchResultTree interpret(CharSequence input) {
-    final List<InputRange> inputRanges = inputRangeCleanup.cleanUp(tnfa2tdfa.tnfa.allInputRanges());
-    List<RThread> startUnexpanded = tnfa2tdfa.convertToDfaState(tnfa2tdfa.tnfa.initialState);
-    StateAndInstructions startState = tnfa2tdfa.oneStep(startUnexpanded, null);
+    return matcher().interpret(input);
+  }
 
-    DFAState dfaState = startState.dfaState;
-    states.add(dfaState);
+  /**
+   * Match all {@code inputs}, in parallel on the common fork-join pool.
+   *
+   * @return the match of every input, in the order of the inputs.
+   * @see #matchAll(List, ForkJoinPool)
+   */
+  public List<MatchResultTree> matchAll(List<? extends CharSequence> inputs) {
+    return matchAll(inputs, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Match all {@code inputs}, in parallel on {@code pool}. The inputs are split into slices,
+   * about eight per worker, and every slice is matched by a matcher of its own. All of them share
+   * this automaton.
+   *
+   * @param inputs should be cheap to access by index.
+   * @return the match of every input, in the order of the inputs.
+   */
+  public List<MatchResultTree> matchAll(List<? extends CharSequence> inputs, ForkJoinPool pool) {
+    final MatchResultTree[] ret = new MatchResultTree[inputs.size()];
+    final int grain = Math.max(1, ret.length / (8 * pool.getParallelism()));
+    pool.invoke(new BatchMatching.Task(this, inputs, ret, 0, ret.length, grain));
+    return Arrays.asList(ret);
+  }
 
-    int cacheHits = 0;
-    TDFATransitionTable tdfa = null;
-    int tdfaState = -1;
+  /**
+   * @return a parallel stream of the matches of all {@code inputs}, in the order of the inputs.
+   *         Every split of the stream has a matcher of its own.
+   * @param inputs should be cheap to access by index.
+   */
+  public Stream<MatchResultTree> matchStream(List<? extends CharSequence> inputs) {
+    return StreamSupport.stream(new BatchMatching.Splitter(this, inputs, 0, inputs.size()), true);
+  }
 
-    for (final Instruction instruction : startState.instructions) {
-      instruction.execute(-1);
+  /** @return the number of memory cells that any instruction handed out so far may write. */
+  synchronized int registerCount() {
+    if (tnfa2tdfa == null) {
+      return loadedRegisterCount;
     }
+    return tnfa2tdfa.instructionMaker.registerCount();
+  }
 
-    NextState newState = new NextState(); // Output parameter to save allocations
-    int inputLen = input.length(); // Prevent re-executing on every loop step.
-    for (int pos = 0; pos < inputLen; pos++) {
-      final char a = input.charAt(pos);
+  /**
+   * @return a table of all transitions known so far. Transitions found later show up in it until
+   *         the table has to grow. Safe to read without locking.
+   */
+  TDFATransitionTable table() {
+    return tdfaBuilder.table();
+  }
 
-      // If there is a TDFA, see if it has a transition. Execute if there and continue.
-      if (tdfa != null) {
-        tdfa.newStateAndInstructions(tdfaState, a, newState);
-        if (newState.found) {
-          for (Instruction i : newState.instructions) {
-            i.execute(pos);
-          }
-          tdfaState = newState.nextState;
-          continue;
-        }
-        tdfa = null;
-        dfaState = tdfaBuilder.mapping.deoptimized.get(tdfaState);
-        tdfaState = -1;
-        cacheHits = 0;
-      } else { // Find the transition in the builder. Execute if there and continue.
-        NextDFAState nextState = tdfaBuilder.availableTransition(dfaState, a);
-        if (nextState != null) {
-          for (final Instruction i : nextState.instructions) {
-            i.execute(pos);
-          }
-
-          dfaState = nextState.nextState;
-
-          cacheHits++;
-          if (cacheHits > COMPILE_THRESHOLD) {
-            tdfa = tdfaBuilder.build();
-            tdfaState = tdfaBuilder.mapping.mapping.get(dfaState);
-          }
-
-          continue;
-        }
-      }
+  /**
+   * @return the full state behind {@code state} of table {@code seen}. The state may be too new
+   *         for {@code seen}, or {@code seen} older than the last flush.
+   */
+  synchronized DFAState deoptimized(TDFATransitionTable seen, int state) {
+    return seen.builder.table().deoptimized(state);
+  }
 
-      cacheHits = 0; // We got here because the cache hasn't seen this transition before.
+  /** @return the number of DFA states found so far. */
+  synchronized int stateCount() {
+    return tdfaBuilder.mapping.deoptimized.size();
+  }
 
-      final InputRange inputRange = findInputRange(inputRanges, a);
-      if (inputRange == null) {
-        return RealMatchResult.NoMatchResult.SINGLETON;
-      }
+  /** @return how often the table of known transitions had to grow so far. */
+  public synchronized int tableResizes() {
+    return flushedResizes + tdfaBuilder.resizes();
+  }
 
-      // TODO this is ugly. Clearly, e should return StateAndPositions.
-      final StateAndInstructions uu = tnfa2tdfa.oneStep(dfaState.threads, inputRange);
-      if (uu == null) { // There is no matching NFA state.
-        return RealMatchResult.NoMatchResult.SINGLETON;
-      }
-      final DFAState u = uu.dfaState;
-
-      Map<History, History> mapping = new LinkedHashMap<>();
-
-      // If there is a valid mapping, findMappableStates will modify mapping into it.
-      final DFAState mappedState = tnfa2tdfa.findMappableState(states, u, mapping);
-
-      DFAState nextState = mappedState;
-      List<Instruction> c = new ArrayList<>(uu.instructions);
-      if (mappedState == null) {
-        mapping = null; // Won't be needed then.
-        nextState = u;
-        states.add(nextState);
-      } else {
-        final List<Instruction> mappingInstructions = tnfa2tdfa.mappingInstructions(mapping);
-        c.addAll(mappingInstructions);
-      }
+  /**
+   * Bound the states kept, and with them the transitions and the memory they take. Once
+   * determinizing would exceed {@code maxStates}, all states and transitions are forgotten, and
+   * determinization starts over from the states that the matchers are in, as in RE2. Matchers that are
+   * running continue on the old table until it misses. Applies to searching, too.
+   *
+   * <p>Without a budget, a pattern keeps every state it ever determinized. Complete automata never
+   * determinize, and so never flush.
+   *
+   * @param maxStates at least 3: the start state, the state a matcher is in, and the next.
+   *        {@link Integer#MAX_VALUE} for no budget, which is the default.
+   */
+  public void setStateBudget(int maxStates) {
+    if (maxStates < 3) {
+      throw new IllegalArgumentException("Need room for at least 3 states, not " + maxStates);
+    }
+    synchronized (this) {
+      stateBudget = maxStates;
+    }
+    if (searchTnfa != null) {
+      searcher().setStateBudget(maxStates);
+    }
+  }
 
-      for (final Instruction instruction : c) {
-        instruction.execute(pos);
-      }
+  /**
+   * Forget all states and transitions, except for the start state. The memory cells of the
+   * forgotten states are handed out again, so that matchers don't need ever more of them. Matchers
+   * holding an older table find their state through {@link TDFATransitionTable#builder}, and
+   * {@link #adopt} it.
+   */
+  private void flush() {
+    flushes++;
+    flushedResizes += tdfaBuilder.resizes();
+    states = new DFAStateTable();
+    withoutPrefix.clear();
+    tnfa2tdfa.instructionMaker.reset(startRegisters);
+    final TDFATransitionTable.Builder flushed = new TDFATransitionTable.Builder(classifier);
+    states.intern(startState);
+    final int start = flushed.stateFor(startState);
+    assert start == startTdfaState;
+    tdfaBuilder = flushed;
+  }
 
-      assert historiesOk(nextState.threads) : nextState.threads;
+  /**
+   * @return the work done so far to build the automaton, including the one for searching. A copy.
+   *         See {@link MatchStats}.
+   */
+  public MatchStats stats() {
+    final MatchStats ret = new MatchStats();
+    final TDFAInterpreter s;
+    synchronized (this) {
+      ret.determinizations = determinizations;
+      ret.mappedStates = mappedStates;
+      ret.states = tdfaBuilder.mapping.deoptimized.size();
+      ret.tableResizes = flushedResizes + tdfaBuilder.resizes();
+      ret.flushes = flushes;
+      s = searcher;
+    }
+    if (s != null) {
+      ret.add(s.stats());
+    }
+    return ret;
+  }
 
-      tdfaBuilder.addTransition(dfaState, inputRange, nextState, c);
+  /** @return the interpreter of the unanchored automaton if it was built yet, otherwise null. */
+  synchronized TDFAInterpreter existingSearcher() {
+    return searcher;
+  }
 
-      dfaState = nextState;
+  /** @return the interpreter of the unanchored automaton, used by {@link TDFAMatcher#find}. */
+  synchronized TDFAInterpreter searcher() {
+    if (searcher == null) {
+      if (searchTnfa == null) {
+        throw new UnsupportedOperationException(
+            "Only interpreters made by compile(), or loaded with their searcher, can search.");
+      }
+      searcher = new TDFAInterpreter(regex, literals, TNFAToTDFA.make(searchTnfa), null);
     }
+    return searcher;
+  }
 
-    // Restore full state before extracing information.
-    if (tdfa != null) {
-      dfaState = tdfaBuilder.mapping.deoptimized.get(tdfaState);
+  /**
+   * Stop skipping input: Remove all threads that haven't started matching yet.
+   *
+   * @return {@code dfaState} without the threads in {@link TNFA#prefixStates}. Null if no thread
+   *         remains.
+   */
+  synchronized DFAState withoutPrefix(DFAState dfaState) {
+    if (withoutPrefix.containsKey(dfaState)) {
+      return withoutPrefix.get(dfaState);
     }
 
-    final Arraylike fin = dfaState.finalHistories;
-    if (fin == null) {
-      return RealMatchResult.NoMatchResult.SINGLETON;
+    final List<RThread> threads = new ArrayList<>(dfaState.threads.size());
+    for (RThread t : dfaState.threads) {
+      if (!tnfa2tdfa.tnfa.prefixStates.contains(t.state)) {
+        threads.add(t);
+      }
     }
 
-    int[] parentOf = tnfa2tdfa.makeParentOf();
-    return new RealMatchResult(fin, input, parentOf);
+    DFAState ret = null;
+    if (threads.size() == dfaState.threads.size()) {
+      ret = dfaState;
+    } else if (!threads.isEmpty()) {
+      // The histories are unchanged, so equal states can be reused without mapping instructions.
+      ret = states.intern(new DFAState(threads, dfaState.finalHistories));
+    }
+    withoutPrefix.put(dfaState, ret);
+    return ret;
   }
 
-  /** Invariant: opening and closing tags must have same length histories. */
-  private boolean historiesOk(List<RThread> threads) {
-    for (final RThread thread : threads) {
-      Iterator<History> it = thread.histories.iterator();
-      while (it.hasNext()) {
-    	History h1 = it.next();
-    	History h2 = it.next();
-        if (h1 != null) {
-          assert h2 != null;
-          if (h1.size() != h2.size()) {
-            return false;
-          }
+  /**
+   * Determinize all states reachable from the start state, breadth first. States that
+   * {@link TDFAMatcher#find} reaches via {@link #withoutPrefix} count as reachable.
+   *
+   * @return true if all states were found, false if there are more than {@code maxStates}.
+   */
+  synchronized boolean explore(int maxStates) {
+    final List<DFAState> known = tdfaBuilder.mapping.deoptimized; // Grows as states are found.
+    for (int state = 0; state < known.size(); state++) {
+      for (int c = 0; c < classifier.size(); c++) {
+        determinize(state, classifier.range(c).getFrom());
+        if (known.size() > maxStates) {
+          return false;
+        }
+      }
+
+      if (known.get(state).finalHistories != null) {
+        final DFAState matching = withoutPrefix(known.get(state));
+        if (matching != null) {
+          tdfaBuilder.stateFor(matching);
         }
       }
     }
+    complete = true;
     return true;
   }
+
+  /**
+   * Compute the transition out of {@code state} of table {@code seen} for input {@code a}, and
+   * add it to the table. Flushes the cache first if it is over budget.
+   *
+   * <p>Callers must read {@link #table()} while still holding the lock, since the returned
+   * transition is between states of that table, not necessarily of {@code seen}.
+   *
+   * @param memory of the matcher in {@code state}. Remapped if {@code seen} is older than the
+   *        last flush.
+   * @return the new transition, or null if there is no matching NFA state.
+   */
+  synchronized Entry determinize(TDFATransitionTable seen, int state, char a, Memory memory) {
+    final int added = seen.builder == tdfaBuilder ? 1 : 2; // The next state, and maybe ours.
+    if (tdfaBuilder.mapping.deoptimized.size() + added > stateBudget) {
+      flush();
+    }
+    return determinize(adopt(seen, state, memory), a);
+  }
+
+  /**
+   * Like {@link #withoutPrefix(DFAState)}, for the matcher in {@code state} of table
+   * {@code seen}. Flushes the cache first if it is over budget.
+   *
+   * <p>Callers must read {@link #table()} while still holding the lock.
+   *
+   * @param memory of the matcher. Remapped if {@code seen} is older than the last flush.
+   * @return the state in {@link #table()} without the prefix threads, or -1 if none remain.
+   */
+  synchronized int withoutPrefix(TDFATransitionTable seen, int state, Memory memory) {
+    final int added = seen.builder == tdfaBuilder ? 1 : 2;
+    if (tdfaBuilder.mapping.deoptimized.size() + added > stateBudget) {
+      flush();
+    }
+    final DFAState matching = withoutPrefix(tdfaBuilder.table().deoptimized(adopt(seen, state,
+        memory)));
+    if (matching == null) {
+      return -1;
+    }
+    return tdfaBuilder.stateFor(matching);
+  }
+
+  /**
+   * @return the state in {@link #table()} that stands for {@code state} of table {@code seen}.
+   *         If the cache was flushed since {@code seen}, the histories of the state may name cells
+   *         that were handed out again. Then all histories but those of the start state are
+   *         copied, the copies get cells of their own, and {@code memory} is remapped to them.
+   */
+  private int adopt(TDFATransitionTable seen, int state, Memory memory) {
+    if (seen.builder == tdfaBuilder) {
+      return state;
+    }
+    final DFAState old = seen.builder.table().deoptimized(state);
+    final Map<History, History> copies = new LinkedHashMap<>();
+    final List<RThread> threads = new ArrayList<>(old.threads.size());
+    for (RThread t : old.threads) {
+      threads.add(new RThread(t.state, copy(t.histories, copies)));
+    }
+    final Arraylike finalHistories = old.finalHistories == null ? null
+        : copy(old.finalHistories, copies);
+
+    final int[] to = new int[copies.size()];
+    final int[] from = new int[copies.size()];
+    int i = 0;
+    for (Map.Entry<History, History> c : copies.entrySet()) {
+      to[i] = c.getValue().register;
+      from[i] = c.getKey().register < 0 ? Integer.MAX_VALUE : c.getKey().register; // Empty.
+      i++;
+    }
+    memory.remap(startRegisters, to, from);
+
+    return tdfaBuilder.stateFor(states.intern(new DFAState(threads, finalHistories)));
+  }
+
+  /**
+   * @return {@code histories}, with every history outside the start state replaced by its copy in
+   *         {@code copies}. Missing copies are made and get a cell.
+   */
+  private Arraylike copy(Arraylike histories, Map<History, History> copies) {
+    Arraylike ret = histories;
+    for (int i = 0; i < histories.size(); i++) {
+      final History h = histories.get(i);
+      if (h.register >= 0 && h.register < startRegisters) {
+        continue;
+      }
+      History c = copies.get(h);
+      if (c == null) {
+        c = tnfa2tdfa.instructionMaker.register(new History());
+        copies.put(h, c);
+      }
+      ret = ret.set(i, c);
+    }
+    return ret;
+  }
+
+  /**
+   * Compute the transition out of {@code state} for input {@code a}, and add it to the table.
+   *
+   * @return the new transition, or null if there is no matching NFA state.
+   */
+  private synchronized Entry determinize(int state, char a) {
+    final int inputClass = classifier.classOf(a);
+    if (inputClass < 0) {
+      return null;
+    }
+    final InputRange inputRange = classifier.range(inputClass);
+
+    // Another matcher may have been faster.
+    final Entry known = tdfaBuilder.table().transition(state, a);
+    if (known != null) {
+      return known;
+    }
+
+    final DFAState dfaState = tdfaBuilder.table().deoptimized(state);
+
+    // TODO this is ugly. Clearly, e should return StateAndPositions.
+    final StateAndInstructions uu = tnfa2tdfa.oneStep(dfaState.threads, inputRange);
+    if (uu == null) { // There is no matching NFA state. Not cached, so not counted either.
+      return null;
+    }
+    // The table miss event of the matcher times oneStep, too.
+    final Events.NewState event = Events.beginNewState();
+    determinizations++;
+    final DFAState u = uu.dfaState;
+
+    Map<History, History> mapping = new LinkedHashMap<>();
+
+    // If there is a valid mapping, findMappableStates will modify mapping into it.
+    final DFAState mappedState = tnfa2tdfa.findMappableState(states, u, mapping);
+
+    DFAState nextState = mappedState;
+    List<Instruction> c = new ArrayList<>(uu.instructions);
+    if (mappedState == null) {
+      mapping = null; // Won't be needed then.
+      nextState = u;
+      states.intern(nextState);
+    } else {
+      mappedStates++;
+      final List<Instruction> mappingInstructions = tnfa2tdfa.mappingInstructions(mapping);
+      c.addAll(mappingInstructions);
+    }
+
+    final Entry ret = tdfaBuilder.addTransition(dfaState, inputRange, nextState, c,
+        tnfa2tdfa.instructionMaker.registerCount());
+    if (mappedState == null) {
+      Events.endNewState(event, regex, ret, tdfaBuilder.mapping.deoptimized.size());
+    }
+    return ret;
+  }
 }
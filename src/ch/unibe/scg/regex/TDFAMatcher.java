@@ -0,0 +1,407 @@
+package ch.unibe.scg.regex;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import ch.unibe.scg.regex.TDFATransitionTable.Builder.Entry;
+
+/**
+ * Matches input against the automaton of a {@link TDFAInterpreter}. Owns the memory cells the
+ * instructions write into, so a matcher must only be used by one thread at a time. Get one from
+ * {@link TDFAInterpreter#matcher()}; they are cheap.
+ */
+public class TDFAMatcher {
+  final TDFAInterpreter interpreter;
+  final Memory memory;
+
+  // The state of the running match.
+  /** The automaton that is being run. Either {@link #interpreter} or its searcher. */
+  private TDFAInterpreter automaton;
+  /** The table of {@link #automaton}, as last seen. Refreshed whenever it misses. */
+  private TDFATransitionTable tdfa;
+  private int tdfaState;
+
+  /** Position of the next character of the running stream. -1 if no stream is running. */
+  private int streamPos = -1;
+  /** True if the running stream can't match anymore. */
+  private boolean streamFailed;
+
+  /** Where the work of each match is counted. Null if it isn't. */
+  private MatchStats stats;
+
+  TDFAMatcher(TDFAInterpreter interpreter) {
+    this.interpreter = interpreter;
+    this.memory = new Memory(interpreter.registerCount());
+  }
+
+  /**
+   * Count the work of all following matches into {@code stats}, until called again. Counting
+   * costs a little on every char read.
+   *
+   * @param stats null to stop counting.
+   */
+  public void collectStats(MatchStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * @return the match of the entire {@code input}. Results stay valid when the matcher is reused.
+   *         Inputs that lack a literal of the regex are rejected before the automaton runs.
+   */
+  public MatchResultTree interpret(CharSequence input) {
+    if (!interpreter.literals.mayMatch(input)) {
+      return rejected();
+    }
+    final DFAState end = run(input);
+    if (end == null || end.finalHistories == null) {
+      return RealMatchResult.NoMatchResult.SINGLETON;
+    }
+
+    return RealMatchResult.of(memory.snapshot(end.finalHistories), memory.arena, input,
+        interpreter.parentOf);
+  }
+
+  /**
+   * Like {@link #interpret(CharSequence)}, but sends the tree of the match to {@code visitor},
+   * rather than returning it. No tree is built, only the positions of all groups are kept.
+   *
+   * @return true if {@code input} matched. Otherwise, {@code visitor} gets no events.
+   */
+  public boolean interpret(CharSequence input, TreeVisitor visitor) {
+    return visit(interpret(input), visitor);
+  }
+
+  /**
+   * Like {@link #interpret(CharSequence, TreeVisitor)}, for bytes. See
+   * {@link #interpret(ByteBuffer)}.
+   */
+  public boolean interpret(ByteBuffer utf8, TreeVisitor visitor) {
+    return visit(interpret(utf8), visitor);
+  }
+
+  private static boolean visit(MatchResultTree res, TreeVisitor visitor) {
+    if (!(res instanceof RealMatchResult)) {
+      return false;
+    }
+    ((RealMatchResult) res).accept(visitor);
+    return true;
+  }
+
+  /**
+   * Like {@link #interpret(CharSequence)}, but reads the remaining bytes of {@code utf8} in
+   * place, without decoding them. Positions are byte offsets from the position of the buffer. See
+   * {@link Utf8#charOffset} for offsets in chars. Groups are decoded when asked for.
+   *
+   * @throws IllegalStateException if the interpreter wasn't compiled by
+   *         {@link TDFAInterpreter#compileUtf8}.
+   */
+  public MatchResultTree interpret(ByteBuffer utf8) {
+    return interpret(bytes(utf8));
+  }
+
+  /** Like {@link #find(CharSequence, int)}, for bytes. See {@link #interpret(ByteBuffer)}. */
+  public MatchResultTree find(ByteBuffer utf8, int from) {
+    return find(bytes(utf8), from);
+  }
+
+  /** Like {@link #findAll(CharSequence)}, for bytes. See {@link #interpret(ByteBuffer)}. */
+  public List<MatchResultTree> findAll(ByteBuffer utf8) {
+    return findAll(bytes(utf8));
+  }
+
+  private CharSequence bytes(ByteBuffer utf8) {
+    if (!interpreter.utf8) {
+      throw new IllegalStateException("Only automata made by compileUtf8() read bytes.");
+    }
+    return new Utf8.Bytes(utf8);
+  }
+
+  /**
+   * Run the automaton over the entire {@code input}. Afterwards, {@link #memory} holds the cells
+   * that the histories of the returned state name, until the next run.
+   *
+   * @return the state after the last char, or null if no NFA state is left before.
+   */
+  DFAState run(CharSequence input) {
+    start(interpreter, 0);
+
+    final CompiledTDFA compiled = interpreter.compiled();
+    if (compiled != null) {
+      if (stats != null) {
+        stats.compiledMatches++;
+      }
+      memory.ensureCapacity(compiled.registerCount);
+      tdfaState = compiled.run(input, 0, input.length(), tdfaState, memory);
+      if (tdfaState < 0) {
+        return null;
+      }
+    } else {
+      int inputLen = input.length(); // Prevent re-executing on every loop step.
+      for (int pos = 0; pos < inputLen; pos++) {
+        if (!step(pos, input.charAt(pos))) {
+          return null;
+        }
+      }
+    }
+
+    return currentState();
+  }
+
+  /**
+   * Find the leftmost match that starts at or after {@code from}. Of all matches starting there,
+   * the longest is returned. Its groups are as {@link #interpret} would report them for the
+   * matched part of the input alone, but with positions relative to all of {@code input}.
+   *
+   * <p>The search reads the input once. Threads that could start a match are dropped as soon
+   * as the first match is seen, so reading stops shortly after the end of the match. If the regex
+   * has a literal prefix, the search skips ahead to it, and if it requires a literal that the rest
+   * of the input lacks, it doesn't read the input at all.
+   *
+   * @return the match, or {@link RealMatchResult.NoMatchResult#SINGLETON} if there is none.
+   */
+  public MatchResultTree find(CharSequence input, int from) {
+    if (from < 0 || from > input.length()) {
+      throw new IndexOutOfBoundsException("Illegal start position " + from);
+    }
+    final int candidate = interpreter.literals.firstCandidate(input, from);
+    if (candidate < 0) {
+      return rejected();
+    }
+    from = candidate;
+    final TDFAInterpreter searcher = interpreter.searcher();
+    start(searcher, from);
+
+    Memory.Snapshot best = null;
+    boolean skipping = true; // As long as there was no match, more matches may start.
+    int inputLen = input.length(); // Prevent re-executing on every loop step.
+    for (int pos = from; true; pos++) {
+      final Arraylike fin = currentState().finalHistories;
+      if (fin != null) {
+        best = better(best, memory.snapshot(fin));
+        if (skipping) {
+          skipping = false;
+          final int matching;
+          synchronized (searcher) { // The state must be in the table.
+            matching = searcher.withoutPrefix(tdfa, tdfaState, memory);
+            tdfa = searcher.table();
+          }
+          if (matching < 0) {
+            break;
+          }
+          tdfaState = matching;
+        }
+      }
+
+      if (pos >= inputLen || !step(pos, input.charAt(pos))) {
+        break;
+      }
+    }
+
+    if (best == null) {
+      return RealMatchResult.NoMatchResult.SINGLETON;
+    }
+    return RealMatchResult.of(best, memory.arena, input, searcher.parentOf);
+  }
+
+  /** @return all non-overlapping matches in {@code input}, from left to right. See {@link #find}. */
+  public List<MatchResultTree> findAll(CharSequence input) {
+    final List<MatchResultTree> ret = new ArrayList<>();
+    int from = 0;
+    while (from <= input.length()) {
+      final MatchResultTree res = find(input, from);
+      if (res == RealMatchResult.NoMatchResult.SINGLETON) {
+        break;
+      }
+      ret.add(res);
+      if (res.end() < res.start()) { // Empty match. Don't find it again.
+        from = res.start() + 1;
+      } else {
+        from = res.end() + 1;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Feed the next chunk of a streamed input. The first chunk starts a new stream. Only the
+   * automaton state and the memory cells are kept between chunks, never the chunk itself.
+   * Calling {@link #interpret} or {@link #find} aborts the stream.
+   *
+   * @param chunk is read, but not consumed. Use a {@link java.nio.CharBuffer} to feed buffers.
+   * @return false if the input can't match anymore, no matter what follows.
+   */
+  public boolean feed(CharSequence chunk) {
+    beginStream();
+    final int len = chunk.length();
+    for (int i = 0; i < len && !streamFailed; i++) {
+      streamStep(chunk.charAt(i));
+    }
+    return !streamFailed;
+  }
+
+  /** Like {@link #feed(CharSequence)}, but reads {@code length} chars from {@code offset}. */
+  public boolean feed(char[] chunk, int offset, int length) {
+    beginStream();
+    final int end = offset + length;
+    for (int i = offset; i < end && !streamFailed; i++) {
+      streamStep(chunk[i]);
+    }
+    return !streamFailed;
+  }
+
+  /**
+   * End the running stream. The next call to {@code feed} starts a new one.
+   *
+   * @return the match of the entire streamed input, with positions counted from its start.
+   *         It does not keep the input, so only positions are available.
+   */
+  public MatchResultTree finish() {
+    beginStream();
+    streamPos = -1;
+    if (streamFailed) {
+      return RealMatchResult.NoMatchResult.SINGLETON;
+    }
+
+    final Arraylike fin = currentState().finalHistories;
+    if (fin == null) {
+      return RealMatchResult.NoMatchResult.SINGLETON;
+    }
+
+    return RealMatchResult.of(memory.snapshot(fin), memory.arena, null, interpreter.parentOf);
+  }
+
+  /**
+   * Like {@link #finish()}, but sends the tree of the match to {@code visitor}. See
+   * {@link #interpret(CharSequence, TreeVisitor)}.
+   */
+  public boolean finish(TreeVisitor visitor) {
+    return visit(finish(), visitor);
+  }
+
+  private void beginStream() {
+    if (streamPos >= 0) {
+      return;
+    }
+    start(interpreter, 0);
+    streamPos = 0;
+    streamFailed = false;
+  }
+
+  private void streamStep(char a) {
+    if (streamPos == Integer.MAX_VALUE) {
+      throw new IllegalStateException("Streams are limited to " + Integer.MAX_VALUE + " chars.");
+    }
+    if (!step(streamPos, a)) {
+      streamFailed = true;
+    }
+    streamPos++;
+  }
+
+  /** @return no match, counted as rejected by the literals. */
+  private MatchResultTree rejected() {
+    if (stats != null) {
+      stats.matches++;
+      stats.rejected++;
+    }
+    return RealMatchResult.NoMatchResult.SINGLETON;
+  }
+
+  /** @return the candidate with the earlier start. Of equal starts, the later one. */
+  private static Memory.Snapshot better(Memory.Snapshot best, Memory.Snapshot candidate) {
+    if (best == null || candidate.cur[0] <= best.cur[0]) {
+      return candidate;
+    }
+    return best;
+  }
+
+  /** Reset to the start state of {@code automaton}, before reading the input at {@code pos}. */
+  private void start(TDFAInterpreter automaton, int pos) {
+    if (stats != null) {
+      stats.matches++;
+    }
+    memory.clear();
+    streamPos = -1;
+    this.automaton = automaton;
+    tdfa = automaton.table();
+    tdfaState = automaton.startTdfaState;
+    execute(automaton.startProgram, pos - 1);
+  }
+
+  /** @return the full state that the matcher is in. */
+  private DFAState currentState() {
+    final DFAState ret = tdfa.deoptimized(tdfaState);
+    if (ret != null) {
+      return ret;
+    }
+    // The state was added by another thread, and this thread may not see it in the table yet.
+    return automaton.deoptimized(tdfa, tdfaState);
+  }
+
+  /**
+   * Read input {@code a} at position {@code pos}.
+   *
+   * @return false if there is no matching NFA state. The matcher must be restarted then.
+   */
+  private boolean step(int pos, char a) {
+    Entry e = tdfa.transition(tdfaState, a);
+    if (e != null) {
+      if (stats != null) {
+        stats.tableHits++;
+        stats.instructions += e.instructions.length;
+      }
+      memory.ensureCapacity(e.registerCount);
+      Program.execute(e.program, pos, memory);
+      tdfaState = e.newState;
+      return true;
+    }
+
+    if (automaton.isComplete()) { // Nothing left to compute: there is no transition.
+      return false;
+    }
+
+    // Unknown transition. Compute it, and continue on the table that has it.
+    final Events.TableMiss miss = Events.beginTableMiss();
+    synchronized (automaton) { // The new state must be in the table.
+      e = automaton.determinize(tdfa, tdfaState, a, memory);
+      tdfa = automaton.table();
+    }
+    Events.endTableMiss(miss, automaton, tdfaState, e);
+    if (e == null) {
+      return false;
+    }
+    if (stats != null) {
+      stats.determinizations++;
+      stats.instructions += e.instructions.length;
+    }
+    execute(e.program, pos);
+
+    assert historiesOk(e.toDFA.threads) : e.toDFA.threads;
+
+    tdfaState = e.newState;
+    return true;
+  }
+
+  /**
+   * Execute {@code program}, which came from the automaton. Programs handed out by the automaton
+   * may write to memory cells that this matcher has not seen yet.
+   */
+  private void execute(int[] program, int pos) {
+    memory.ensureCapacity(automaton.registerCount());
+    Program.execute(program, pos, memory);
+  }
+
+  /** Invariant: opening and closing tags must have same length histories. */
+  private boolean historiesOk(List<RThread> threads) {
+    for (final RThread thread : threads) {
+      Iterator<History> it = thread.histories.iterator();
+      while (it.hasNext()) {
+        if (memory.committedCount(it.next()) != memory.committedCount(it.next())) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
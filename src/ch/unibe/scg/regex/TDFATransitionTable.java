@@ -2,77 +2,157 @@ package ch.unibe.scg.regex;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.TreeSet;
 
+/**
+ * Shareable between matchers without locking.
+ *
+ * <p>The input ranges of the transitions are the equivalence classes of the alphabet. The table
+ * is dense: the transition of state {@code s} for class {@code c} is at {@code s * numClasses + c}.
+ * Looking up a transition costs one lookup for the class and one for the transition.
+ *
+ * <p>The tables handed out by a {@link Builder} grow while they are read: transitions only ever
+ * get added, never changed. Since {@link Builder.Entry} is immutable, readers see either no
+ * transition or a complete one.
+ */
 class TDFATransitionTable {
-  final private int size;
+  final private CharClassifier classes;
+  final private int numStates;
 
-  // The following vars are, together a struct of arrays.
-  final private char[] froms;
-  final private Instruction[][] instructions;
-  final private int[] newStates;
-  final private int[] states;
-  final private char[] tos;
+  /** Indexed by state * numClasses + class. Null if the transition is unknown. */
+  final private Builder.Entry[] entries;
 
-  /** Position of the last hit in the transition table. */
-  private int last;
+  /** The full state behind each optimized state. Null if unknown. */
+  final private DFAState[] dfaStates;
+
+  /** The builder that adds to this table. Null if there is none. */
+  final Builder builder;
 
   TDFATransitionTable(final char[] froms, final char[] tos, final int[] states,
       final int[] newStates, final Instruction[][] instructions) {
-    this.size = froms.length;
+    this(froms, tos, states, newStates, instructions, new DFAState[0]);
+  }
+
+  /**
+   * All arrays but {@code dfaStates} are a struct of arrays: Transition {@code i} goes from
+   * {@code states[i]} to {@code newStates[i]} for all input in {@code [froms[i], tos[i]]}. The
+   * input ranges must not intersect unless they are equal.
+   */
+  TDFATransitionTable(final char[] froms, final char[] tos, final int[] states,
+      final int[] newStates, final Instruction[][] instructions, final DFAState[] dfaStates) {
+    final int size = froms.length;
     assert tos.length == size && states.length == size && froms.length == size
         && newStates.length == size && instructions.length == size;
-    this.froms = froms;
-    this.tos = tos;
-    this.states = states;
-    this.newStates = newStates;
-    this.instructions = instructions;
+    this.dfaStates = dfaStates;
+    this.builder = null;
+
+    final NavigableSet<InputRange> ranges = new TreeSet<>();
+    int maxState = dfaStates.length - 1;
+    for (int i = 0; i < size; i++) {
+      ranges.add(InputRange.make(froms[i], tos[i]));
+      maxState = Math.max(maxState, Math.max(states[i], newStates[i]));
+    }
+    classes = new CharClassifier(ranges);
+    numStates = maxState + 1;
+
+    entries = new Builder.Entry[numStates * classes.size()];
+    for (int i = 0; i < size; i++) {
+      entries[states[i] * classes.size() + classes.classOf(froms[i])] =
+          new Builder.Entry(froms[i], tos[i], instructions[i], states[i], newStates[i], null, 0);
+    }
   }
 
-  static class NextState {
-    Instruction[] instructions;
-    int nextState;
-    boolean found;
+  /** Shares all arrays. */
+  private TDFATransitionTable(CharClassifier classes, int numStates, Builder.Entry[] entries,
+      DFAState[] dfaStates, Builder builder) {
+    assert entries.length >= numStates * classes.size() && dfaStates.length >= numStates;
+    this.classes = classes;
+    this.numStates = numStates;
+    this.entries = entries;
+    this.dfaStates = dfaStates;
+    this.builder = builder;
   }
 
-  static class NextDFAState {
-    final Instruction[] instructions;
-    final DFAState nextState;
+  CharClassifier classes() {
+    return classes;
+  }
 
-    NextDFAState(Instruction[] instructions, DFAState nextState) {
-      this.instructions = instructions;
-      this.nextState = nextState;
+  /** @return the full state behind optimized state {@code state}. Null if it isn't known yet. */
+  DFAState deoptimized(final int state) {
+    if (state >= numStates) {
+      return null;
     }
+    return dfaStates[state];
+  }
 
-    @Override
-    public String toString() {
-      return nextState.toString() + " " + Arrays.toString(instructions);
+  /** @return the transition out of {@code state} for {@code input}. Null if it isn't known yet. */
+  Builder.Entry transition(final int state, final char input) {
+    final int c = classes.classOf(input);
+    if (c < 0 || state >= numStates) {
+      return null;
     }
+    return entries[state * classes.size() + c];
+  }
+
+  /** Output parameter of {@link TDFATransitionTable#newStateAndInstructions}. One per matcher. */
+  static class NextState {
+    Instruction[] instructions;
+    int nextState;
+    boolean found;
   }
 
+  /**
+   * Adds transitions to a table that grows in place. Not threadsafe, but the tables from
+   * {@link #table()} may be read while transitions are added.
+   */
   static class Builder {
+    private static final int INITIAL_CAPACITY = 16;
+
     final Builder.Mapping mapping = new Mapping();
-    final NavigableSet<Builder.Entry> transitions = new TreeSet<>();
+    final CharClassifier classes;
+
+    /** Number of states that the arrays have room for. */
+    private int capacity = INITIAL_CAPACITY;
+    private Entry[] entries;
+    private DFAState[] dfaStates;
+    /** Shares the arrays above. Replaced whenever they grow. */
+    private volatile TDFATransitionTable table;
+    /** How often the arrays had to grow. */
+    private int resizes = 0;
+
+    /** @param classes the classes of the input ranges of all transitions. */
+    Builder(final CharClassifier classes) {
+      this.classes = classes;
+      entries = new Entry[capacity * this.classes.size()];
+      dfaStates = new DFAState[capacity];
+      table = new TDFATransitionTable(this.classes, capacity, entries, dfaStates, this);
+    }
 
+    /** Immutable. */
     static class Entry implements Comparable<Builder.Entry> {
       final char from, to;
       final Instruction[] instructions;
+      /** {@link #instructions}, as opcodes. See {@link Program}. */
+      final int[] program;
       final int state, newState;
       final DFAState toDFA;
+      /** Number of memory cells that {@link #instructions} may write. */
+      final int registerCount;
 
       Entry(final char from, final char to, final Instruction[] c,
-          final int state, final int newState, DFAState toDFA) {
+          final int state, final int newState, DFAState toDFA, int registerCount) {
         this.from = from;
         this.to = to;
         this.instructions = c;
+        this.program = Program.of(c);
         this.state = state;
         this.newState = newState;
         this.toDFA = toDFA;
+        this.registerCount = registerCount;
       }
 
       @Override
@@ -114,137 +194,98 @@ class TDFATransitionTable {
       }
     }
 
-    void addTransition(final DFAState t, final InputRange inputRange,
-        final DFAState newState, final List<Instruction> c) {
-
-      final Builder.Entry e =
-          new Entry(inputRange.getFrom(), inputRange.getTo(), c.toArray(new Instruction[c.size()]),
-              mapping.lookupOrMake(t), mapping.lookupOrMake(newState), newState);
-      transitions.add(e);
-    }
-
-    NextDFAState availableTransition(DFAState t, char a) {
-      final Integer fromState = mapping.mapping.get(t);
-      if (fromState == null) {
-        return null;
-      }
-      final Builder.Entry probe = new Entry(a, a, null, fromState, -1, null);
-      final NavigableSet<Builder.Entry> headSet = transitions.headSet(probe, true);
-      if (headSet.isEmpty()) {
-        return null;
-      }
-      final Builder.Entry found = headSet.last();
-      if (found.state != probe.state || !(found.from <= a && a <= found.to)) {
-        return null;
+    /** @return the optimized state that stands for {@code state}. Makes one if there is none. */
+    int stateFor(final DFAState state) {
+      final int ret = mapping.lookupOrMake(state);
+      if (ret >= capacity) {
+        grow();
       }
+      dfaStates[ret] = state;
+      return ret;
+    }
 
-      return new NextDFAState(found.instructions, found.toDFA);
+    /** Double the capacity. Readers of the old table keep reading the old arrays. */
+    private void grow() {
+      capacity *= 2;
+      entries = Arrays.copyOf(entries, capacity * classes.size());
+      dfaStates = Arrays.copyOf(dfaStates, capacity);
+      table = new TDFATransitionTable(classes, capacity, entries, dfaStates, this);
+      resizes++;
     }
 
-    public TDFATransitionTable build() {
-      final Iterator<Builder.Entry> transitionsIter = transitions.iterator();
-      final int size = transitions.size();
-      final char[] froms = new char[size];
-      final Instruction[][] instructions = new Instruction[size][];
-      final int[] newStates = new int[size];
-      final int[] states = new int[size];
-      final char[] tos = new char[size];
-
-      for (int i = 0; i < size; i++) {
-        final Builder.Entry e = transitionsIter.next();
-        froms[i] = e.from;
-        tos[i] = e.to;
-        states[i] = e.state;
-        newStates[i] = e.newState;
-        instructions[i] = e.instructions;
-      }
-      assert !transitionsIter.hasNext();
-      return new TDFATransitionTable(froms, tos, states, newStates, instructions);
+    Entry addTransition(final DFAState t, final InputRange inputRange,
+        final DFAState newState, final List<Instruction> c) {
+      return addTransition(t, inputRange, newState, c, 0);
     }
 
-    @Override
-    public String toString() {
-      return build().toString();
+    /**
+     * @param inputRange must be one of the classes.
+     * @param registerCount the number of memory cells that {@code c} may write.
+     */
+    Entry addTransition(final DFAState t, final InputRange inputRange,
+        final DFAState newState, final List<Instruction> c, final int registerCount) {
+      assert classes.isClass(inputRange) : inputRange + " is not a class";
+      final int state = stateFor(t);
+      final Entry e = new Entry(inputRange.getFrom(), inputRange.getTo(),
+          c.toArray(new Instruction[c.size()]), state, stateFor(newState), newState, registerCount);
+      entries[state * classes.size() + classes.classOf(inputRange.getFrom())] = e;
+      return e;
     }
-  }
 
-  private int cmp(final int state1, final int state2, final char ch1, final char ch2) {
-    final int scmp = Integer.compare(state1, state2);
-    if (scmp != 0) {
-      return scmp;
+    /** @return a table that contains all transitions added so far, and sees new ones. */
+    TDFATransitionTable table() {
+      return table;
     }
-    return Character.compare(ch1, ch2);
-  }
 
-  void newStateAndInstructions(final int state, final char input, NextState out) {
-    if (states[last] == state && froms[last] <= input && input <= tos[last]) {
-      out.nextState = newStates[last];
-      out.instructions = instructions[last];
-      out.found = true;
-      return;
+    /** @return how often the table had to grow. */
+    int resizes() {
+      return resizes;
     }
 
-    if (size < 20) { // linear scan for small automata
-      for (int y = 0; y < size; y++) {
-        if (states[y] == state && froms[y] <= input && input <= tos[y]) {
-          out.nextState = newStates[y];
-          out.instructions = instructions[y];
-          last = y;
-          out.found = true;
-          return;
+    /** @return all transitions, ordered by state, then input. */
+    List<Entry> transitions() {
+      final List<Entry> ret = new ArrayList<>();
+      for (Entry e : entries) {
+        if (e != null) {
+          ret.add(e);
         }
       }
-
-      out.found = false;
-      return;
+      return ret;
     }
 
-    int l = 0;
-    int r = size - 1;
-    int x = -1;
-    while (r >= l) {
-      x = (l + r) >>> 1;  // average and stays correct if addition overflows.
-      final int cmp = cmp(state, states[x], input, froms[x]);
-      if (cmp < 0) {
-        r = x - 1;
-      } else if (cmp > 0) {
-        l = x + 1;
-      } else {
-        out.nextState = newStates[x];
-        out.instructions = instructions[x];
-        last = x;
-        out.found = true;
-        return;
-      }
+    /** @return a copy of the transitions added so far, without room to grow. */
+    public TDFATransitionTable build() {
+      final int size = mapping.deoptimized.size();
+      return new TDFATransitionTable(classes, size, Arrays.copyOf(entries, size * classes.size()),
+          Arrays.copyOf(dfaStates, size), null);
     }
 
-    assert x != -1;
-
-    for (int i = -1; i <= 1; i++) {
-      final int y = x + i;
+    @Override
+    public String toString() {
+      return build().toString();
+    }
+  }
 
-      if (0 <= y && y < size) {
-        if (states[y] == state && froms[y] <= input && input <= tos[y]) {
-          out.nextState = newStates[y];
-          out.instructions = instructions[y];
-          last = y;
-          out.found = true;
-          return;
-        }
-      }
+  void newStateAndInstructions(final int state, final char input, NextState out) {
+    final Builder.Entry e = transition(state, input);
+    if (e == null) {
+      out.found = false;
+      return;
     }
 
-    out.found = false;
-    return;
+    out.nextState = e.newState;
+    out.instructions = e.instructions;
+    out.found = true;
   }
 
   @Override
   public String toString() {
     final StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < size; i++) {
-      sb.append(new Builder.Entry(froms[i], tos[i], instructions[i], states[i], newStates[i], null)
-          .toString());
-      sb.append('\n');
+    for (Builder.Entry e : entries) {
+      if (e != null) {
+        sb.append(e.toString());
+        sb.append('\n');
+      }
     }
     return sb.toString();
   }
@@ -1,8 +1,11 @@
 package ch.unibe.scg.regex;
 
+import static java.util.Collections.singleton;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -20,15 +23,38 @@ class TNFA {
   final State initialState;
   final State finalState;
   final List<Tag> tags;
+  /** States that skip input before the match starts. Empty unless the automaton is unanchored. */
+  final Set<State> prefixStates;
+  /**
+   * The final state of each pattern, if the automaton is a set of patterns. Then
+   * {@link #finalState} is null. Empty otherwise. See {@link RegexToNFA#convertSet}.
+   */
+  final List<State> acceptingStates;
+  /** The capture group of the entire match of each pattern in {@link #acceptingStates}. */
+  final int[] firstGroups;
+  /** True if the automaton reads UTF-8 bytes, as the chars 0 to 255. See {@link #toUtf8}. */
+  final boolean utf8;
+
+  TNFA(Map<Pair<State, InputRange>, Collection<Transition>> transitions,
+      Map<State, Collection<Transition>> epsilonTransitions, State initialState,
+      State finalState, List<Tag> tags, Set<State> prefixStates) {
+    this(transitions, epsilonTransitions, initialState, finalState, tags, prefixStates,
+        Collections.<State> emptyList(), new int[0], false);
+  }
 
   TNFA(Map<Pair<State, InputRange>, Collection<Transition>> transitions,
       Map<State, Collection<Transition>> epsilonTransitions, State initialState,
-      State finalState, List<Tag> tags) {
+      State finalState, List<Tag> tags, Set<State> prefixStates, List<State> acceptingStates,
+      int[] firstGroups, boolean utf8) {
+    this.acceptingStates = acceptingStates;
+    this.firstGroups = firstGroups;
+    this.utf8 = utf8;
     this.transitions = transitions;
     this.epsilonTransitions = epsilonTransitions;
     this.initialState = initialState;
     this.finalState = finalState;
     this.tags = tags;
+    this.prefixStates = prefixStates;
   }
 
   static class Builder {
@@ -36,6 +62,9 @@ class TNFA {
     State finalState;
     State initialState;
     final List<Tag> tags = new ArrayList<>();
+    final Set<State> prefixStates = new HashSet<>();
+    final List<State> acceptingStates = new ArrayList<>();
+    final List<Integer> firstGroups = new ArrayList<>();
     final NavigableSet<InputRange> allInputRanges;
     final Map<Pair<State, InputRange>, Collection<Transition>> transitions = new LinkedHashMap<>();
     final Map<State, Collection<Transition>> epsilonTransitions = new LinkedHashMap<>();
@@ -98,7 +127,12 @@ class TNFA {
     }
 
     TNFA build() {
-      return new TNFA(transitions, epsilonTransitions, initialState, finalState, tags);
+      final int[] firsts = new int[firstGroups.size()];
+      for (int i = 0; i < firsts.length; i++) {
+        firsts[i] = firstGroups.get(i);
+      }
+      return new TNFA(transitions, epsilonTransitions, initialState, finalState, tags, prefixStates,
+          acceptingStates, firsts, false);
     }
 
     CaptureGroup makeCaptureGroup(CaptureGroup parent) {
@@ -116,7 +150,8 @@ class TNFA {
     }
 
     /**
-     * Sets the argument to be the single final state of the automaton. Must be called exactly once.
+     * Sets the argument to be the single final state of the automaton. Must be called exactly once,
+     * unless the automaton is a set of patterns. See {@link #addAccepting}.
      */
     void setAsAccepting(final State finalState) {
       if (this.finalState != null) {
@@ -127,6 +162,19 @@ class TNFA {
       this.finalState = finalState;
     }
 
+    /**
+     * Adds the final state of the next pattern of a set of patterns.
+     *
+     * @param entireMatch the capture group of the entire match of the pattern.
+     */
+    void addAccepting(final State accepting, final CaptureGroup entireMatch) {
+      if (finalState != null) {
+        throw new IllegalStateException("A single final state can't be mixed with a set.");
+      }
+      acceptingStates.add(accepting);
+      firstGroups.add(entireMatch.number);
+    }
+
     void registerCaptureGroup(CaptureGroup cg) {
       assert tags.size() / 2 == cg.number;
       tags.add(cg.startTag);
@@ -134,6 +182,51 @@ class TNFA {
     }
   }
 
+  /**
+   * @return this automaton, but reading UTF-8 bytes rather than chars. Every transition for a
+   *         range of chars becomes paths through new states, one path per byte sequence that
+   *         encodes chars of the range. See {@link Utf8#sequences}. Tags stay where they are, so
+   *         positions are byte offsets. The new states of paths out of prefix states skip input,
+   *         too.
+   */
+  TNFA toUtf8() {
+    final Map<InputRange, List<List<InputRange>>> sequences = new HashMap<>();
+    final Collection<InputRange> byteRanges = new ArrayList<>();
+    for (final Pair<State, InputRange> key : transitions.keySet()) {
+      if (!sequences.containsKey(key.second)) {
+        final List<List<InputRange>> s = Utf8.sequences(key.second);
+        sequences.put(key.second, s);
+        for (List<InputRange> sequence : s) {
+          byteRanges.addAll(sequence);
+        }
+      }
+    }
+
+    final Builder b = Builder.make(byteRanges);
+    b.prefixStates.addAll(prefixStates);
+    for (final Map.Entry<Pair<State, InputRange>, Collection<Transition>> e : transitions.entrySet()) {
+      final State from = e.getKey().first;
+      final boolean skipping = prefixStates.contains(from);
+      for (final Transition t : e.getValue()) {
+        assert t.tag == Tag.NONE && t.priority == Priority.NORMAL;
+        for (final List<InputRange> sequence : sequences.get(e.getKey().second)) {
+          State cur = from;
+          for (int i = 0; i < sequence.size() - 1; i++) {
+            final State next = b.makeState();
+            if (skipping) {
+              b.prefixStates.add(next);
+            }
+            b.addUntaggedTransition(sequence.get(i), singleton(cur), next);
+            cur = next;
+          }
+          b.addUntaggedTransition(sequence.get(sequence.size() - 1), singleton(cur), t.state);
+        }
+      }
+    }
+    return new TNFA(b.transitions, epsilonTransitions, initialState, finalState, tags,
+        b.prefixStates, acceptingStates, firstGroups, true);
+  }
+
   /** @return all input ranges as they are, possibly with duplicates. */
   Collection<InputRange> allInputRanges() {
     final List<InputRange> ret = new ArrayList<>();
@@ -167,6 +260,33 @@ class TNFA {
     return ret;
   }
 
+  /** @return all states that any transition starts or ends in, in any order, without duplicates. */
+  Collection<State> allStates() {
+    final Set<State> ret = new HashSet<>();
+    ret.add(initialState);
+    if (finalState != null) {
+      ret.add(finalState);
+    }
+    ret.addAll(acceptingStates);
+
+    for (final Pair<State, InputRange> key : transitions.keySet()) {
+      ret.add(key.first);
+    }
+    ret.addAll(epsilonTransitions.keySet());
+
+    Collection<Collection<Transition>> all =
+        new ArrayList<>(transitions.size() + epsilonTransitions.size());
+    all.addAll(transitions.values());
+    all.addAll(epsilonTransitions.values());
+    for (final Collection<Transition> triples : all) {
+      for (final Transition triple : triples) {
+        ret.add(triple.state);
+      }
+    }
+
+    return ret;
+  }
+
   Collection<Transition> availableTransitionsFor(State key, InputRange ir) {
     Collection<Transition> ret = transitions.get(new Pair<>(key, ir));
     if (ret == null) {
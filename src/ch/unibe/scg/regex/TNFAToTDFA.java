@@ -13,7 +13,6 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableSet;
 import java.util.Set;
 
 
@@ -24,8 +23,6 @@ class TNFAToTDFA {
 
   final Instruction.InstructionMaker instructionMaker = Instruction.InstructionMaker.get();
 
-  final TDFATransitionTable.Builder tdfaBuilder = new TDFATransitionTable.Builder();
-
   final TNFA tnfa;
 
   TNFAToTDFA(final TNFA tnfa) {
@@ -172,7 +169,7 @@ class TNFAToTDFA {
     }
 
     return new StateAndInstructions(
-      new DFAState(newInner, DFAState.makeComparisonKey(newInner), finalHistories),
+      new DFAState(newInner, finalHistories),
       instructions);
   }
 
@@ -192,7 +189,7 @@ class TNFAToTDFA {
     while (!workStack.isEmpty()) {
       final TransitioningThread workTransition = workStack.removeFirst();
       newInner.add(workTransition.thread);
-      if (tnfa.finalState.equals(workTransition.thread.state)) {
+      if (workTransition.thread.state.equals(tnfa.finalState)) {
         assert finalHistories == null;
         finalHistories = workTransition.thread.histories;
       }
@@ -200,23 +197,9 @@ class TNFAToTDFA {
     return finalHistories;
   }
 
-  DFAState findMappableState(NavigableSet<DFAState> states, DFAState u, Map<History, History> mapping) {
-    // `from` is a key that is smaller than all possible full keys. Likewise, `to` is bigger than all.
-    DFAState from = new DFAState(null, DFAState.makeStateComparisonKey(u.threads), null);
-    byte[] toKey = DFAState.makeStateComparisonKey(u.threads);
-    // Assume that toKey is not full of Byte.MAX_VALUE. That would be really unlucky.
-    // Also a bit unlikely, given that it'state an MD5 hash, and therefore pretty random.
-    for (int i = toKey.length - 1; true; i--) {
-      if (toKey[i] != Byte.MAX_VALUE) {
-        toKey[i]++;
-        break;
-      }
-    }
-    DFAState to = new DFAState(null, toKey, null);
-
-    final NavigableSet<DFAState> range = states.subSet(from, true, to, false);
-    for (final DFAState candidate : range) {
-      if (isMappable(u, candidate, mapping)) {
+  DFAState findMappableState(DFAStateTable states, DFAState u, Map<History, History> mapping) {
+    for (final DFAState candidate : states.withSameInnerStates(u)) {
+      if (u.sameInnerStates(candidate) && isMappable(u, candidate, mapping)) {
         return candidate;
       }
     }
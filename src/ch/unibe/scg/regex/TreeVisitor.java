@@ -0,0 +1,28 @@
+package ch.unibe.scg.regex;
+
+/**
+ * Receives a parse tree as events, in document order, rather than as a {@link MatchResultTree}.
+ * Every match of a group is entered, then its children are sent, and then it is exited. The first
+ * event enters group 0, the whole match, and the last exits it.
+ *
+ * <pre>
+ *   Regex:  "((a+)b)+"
+ *   String: "abaab"
+ *   Events: enter 0 0, enter 1 0, enter 2 0, exit 2 1, exit 1 2,
+ *           enter 1 2, enter 2 2, exit 2 4, exit 1 5, exit 0 5
+ * </pre>
+ *
+ * No tree is built, so consumers that write the tree out as it comes never hold it in memory.
+ *
+ * @see TDFAMatcher#interpret(CharSequence, TreeVisitor)
+ */
+public interface TreeVisitor {
+  /**
+   * A match of {@code group} starts at {@code start}. See
+   * {@link MatchResultTree.TreeNode#getGroup()}.
+   */
+  void enterGroup(int group, int start);
+
+  /** The match of {@code group} entered last ends before {@code end}. */
+  void exitGroup(int group, int end);
+}
@@ -0,0 +1,165 @@
+package ch.unibe.scg.regex;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * UTF-8 for automata that read bytes rather than chars. See
+ * {@link TDFAInterpreter#compileUtf8}. Bytes are read as the chars 0 to 255.
+ */
+public final class Utf8 {
+  private static final int MIN_SURROGATE = Character.MIN_SURROGATE;
+  private static final int MAX_SURROGATE = Character.MAX_SURROGATE;
+
+  private Utf8() {} // Not instantiable.
+
+  /**
+   * @return the byte sequences that encode the chars of {@code range}, each a list of byte ranges.
+   *         A byte sequence matches if each of its bytes is in the range at its place. Surrogates
+   *         can't be encoded alone: a range of all surrogates stands for all supplementary code
+   *         points, and other surrogates are dropped.
+   */
+  static List<List<InputRange>> sequences(InputRange range) {
+    final List<List<InputRange>> ret = new ArrayList<>();
+    final int from = range.getFrom();
+    final int to = range.getTo();
+    if (from > to) { // Empty, like the end of string.
+      return ret;
+    }
+    if (to < MIN_SURROGATE || from > MAX_SURROGATE) {
+      split(from, to, ret);
+      return ret;
+    }
+    if (from < MIN_SURROGATE) {
+      split(from, MIN_SURROGATE - 1, ret);
+    }
+    if (from <= MIN_SURROGATE && to >= MAX_SURROGATE) {
+      split(Character.MIN_SUPPLEMENTARY_CODE_POINT, Character.MAX_CODE_POINT, ret);
+    }
+    if (to > MAX_SURROGATE) {
+      split(MAX_SURROGATE + 1, to, ret);
+    }
+    return ret;
+  }
+
+  /** Split code points {@code from} to {@code to} into ranges of equal length encodings. */
+  private static void split(int from, int to, List<List<InputRange>> out) {
+    final int[] maxOfLength = { 0x7F, 0x7FF, 0xFFFF, Character.MAX_CODE_POINT };
+    for (int max : maxOfLength) {
+      if (from <= max) {
+        splitSameLength(from, Math.min(to, max), out);
+        if (to <= max) {
+          return;
+        }
+        from = max + 1;
+      }
+    }
+  }
+
+  /**
+   * Split code points {@code from} to {@code to}, which encode to the same length, until every
+   * byte of the encodings ranges independently of the others.
+   */
+  private static void splitSameLength(int from, int to, List<List<InputRange>> out) {
+    final int length = encode(from).length;
+    for (int i = 1; i < length; i++) {
+      final int trailing = (1 << (6 * i)) - 1; // The code point bits of the last i bytes.
+      if ((from & ~trailing) != (to & ~trailing)) {
+        if ((from & trailing) != 0) {
+          splitSameLength(from, from | trailing, out);
+          splitSameLength((from | trailing) + 1, to, out);
+          return;
+        }
+        if ((to & trailing) != trailing) {
+          splitSameLength(from, (to & ~trailing) - 1, out);
+          splitSameLength(to & ~trailing, to, out);
+          return;
+        }
+      }
+    }
+
+    final byte[] first = encode(from);
+    final byte[] last = encode(to);
+    final List<InputRange> sequence = new ArrayList<>(length);
+    for (int i = 0; i < length; i++) {
+      sequence.add(InputRange.make((char) (first[i] & 0xFF), (char) (last[i] & 0xFF)));
+    }
+    out.add(sequence);
+  }
+
+  private static byte[] encode(int codePoint) {
+    return new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** @return {@code s}, encoded as UTF-8, one char per byte. */
+  static String encode(String s) {
+    return new String(s.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * @return the offset in chars of {@code byteOffset}, from the position of {@code utf8}. That is,
+   *         the number of chars that the bytes before it decode to. Costs a pass over those bytes.
+   */
+  public static int charOffset(ByteBuffer utf8, int byteOffset) {
+    final int start = utf8.position();
+    int ret = 0;
+    for (int i = 0; i < byteOffset; i++) {
+      final int b = utf8.get(start + i) & 0xFF;
+      if ((b & 0xC0) != 0x80) { // Not a continuation byte: a char starts.
+        ret += b >= 0xF0 ? 2 : 1; // Supplementary code points take two chars.
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * The remaining bytes of a buffer, read in place, one char per byte. Subsequences are views,
+   * too, but {@link #toString()} decodes the bytes, so that the groups of matches are text.
+   */
+  static final class Bytes implements CharSequence {
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int length;
+
+    /** Reads the bytes of {@code buffer} from its position to its limit. */
+    Bytes(ByteBuffer buffer) {
+      this(buffer, buffer.position(), buffer.remaining());
+    }
+
+    private Bytes(ByteBuffer buffer, int start, int length) {
+      this.buffer = buffer;
+      this.start = start;
+      this.length = length;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return (char) (buffer.get(start + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+      if (from < 0 || to > length || from > to) {
+        throw new IndexOutOfBoundsException(from + "-" + to + " of " + length);
+      }
+      return new Bytes(buffer, start + from, to - from);
+    }
+
+    /** @return the bytes, decoded from UTF-8. */
+    @Override
+    public String toString() {
+      final byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+        bytes[i] = buffer.get(start + i);
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+}
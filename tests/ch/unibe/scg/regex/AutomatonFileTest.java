@@ -0,0 +1,160 @@
+package ch.unibe.scg.regex;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public final class AutomatonFileTest {
+  Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    State.resetCount();
+    History.resetCount();
+    file = Files.createTempFile("automaton", ".tdfa");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.delete(file);
+  }
+
+  @Test
+  public void loadedMatchesLikeCompiled() throws IOException {
+    TDFAInterpreter compiled = TDFAInterpreter.compileEagerly("(([a-zA-Z ]*),([0-9]+);)+", 1000);
+    AutomatonFile.save(compiled, file);
+    TDFAInterpreter loaded = AutomatonFile.load(file);
+
+    assertThat(loaded.isComplete(), is(true));
+    assertThat(loaded.regex, is("(([a-zA-Z ]*),([0-9]+);)+"));
+    TDFAMatcher expected = compiled.matcher();
+    TDFAMatcher actual = loaded.matcher();
+    for (String input : new String[] { "Tom Lehrer,01;Alan Turing,23;", "a,1;", "a,;", "" }) {
+      MatchResultTree res = actual.interpret(input);
+      assertThat(res.toString(), is(expected.interpret(input).toString()));
+      if (res instanceof RealMatchResult) {
+        assertThat(((RealMatchResult) res).matchPositionsDebugString(),
+            is(((RealMatchResult) compiled.interpret(input)).matchPositionsDebugString()));
+      }
+      assertThat(actual.findAll("x" + input + "y;b,2;").toString(),
+          is(expected.findAll("x" + input + "y;b,2;").toString()));
+    }
+    assertThat(loaded.stats().determinizations(), is(0L));
+  }
+
+  @Test
+  public void keepsLiterals() throws IOException {
+    AutomatonFile.save(TDFAInterpreter.compileEagerly("ERROR ([a-z]+)", 1000), file);
+    TDFAInterpreter loaded = AutomatonFile.load(file);
+    assertThat(loaded.literals.prefix, is("ERROR "));
+    assertThat(loaded.literals.required, is("ERROR "));
+
+    TDFAMatcher matcher = loaded.matcher();
+    MatchStats stats = new MatchStats();
+    matcher.collectStats(stats);
+    assertThat(matcher.interpret("INFO abc").toString(), is("NO_MATCH"));
+    assertThat(matcher.find("INFO abc", 0).toString(), is("NO_MATCH"));
+    assertThat(matcher.interpret("ERROR abc").toString(), is("0-8"));
+    assertThat(matcher.find("x ERROR abc", 0).start(), is(2));
+    assertThat(stats.rejected(), is(2L));
+  }
+
+  @Test
+  public void streamsOnLoadedTable() throws IOException {
+    AutomatonFile.save(TDFAInterpreter.compileEagerly("(((a+)b)+c)+", 1000), file);
+    TDFAMatcher matcher = AutomatonFile.load(file).matcher();
+    matcher.feed("abcaab");
+    matcher.feed("aaabc");
+    assertThat(matcher.finish().getRoot().getChildren().toString(), is("[0-2, 3-10]"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void onlyComplete() throws IOException {
+    AutomatonFile.save(TDFAInterpreter.compile("(((a+)b)+c)+"), file);
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsOtherFiles() throws IOException {
+    Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+    AutomatonFile.load(file);
+  }
+
+  @Test
+  public void rejectsTruncatedFiles() throws IOException {
+    AutomatonFile.save(TDFAInterpreter.compileEagerly("((a+)b)+c", 1000), file);
+    final byte[] bytes = Files.readAllBytes(file);
+    for (int length = 0; length < bytes.length; length++) {
+      Files.write(file, Arrays.copyOf(bytes, length));
+      try {
+        AutomatonFile.load(file);
+        fail("Loaded the first " + length + " of " + bytes.length + " bytes.");
+      } catch (IOException expected) {
+        // Good.
+      }
+    }
+  }
+
+  @Test
+  public void rejectsCorruptFiles() throws IOException {
+    AutomatonFile.save(TDFAInterpreter.compileEagerly("((a+)b)+c", 1000), file);
+    final byte[] bytes = Files.readAllBytes(file);
+    for (int i = 8; i < bytes.length; i++) {
+      for (int bit : new int[] { 0x01, 0x40, 0x80 }) {
+        final byte[] corrupt = bytes.clone();
+        corrupt[i] ^= bit;
+        Files.write(file, corrupt);
+        try {
+          AutomatonFile.load(file); // A flipped bit may well leave a valid automaton.
+        } catch (IOException e) {
+          assertThat(e.getMessage(), e.getMessage().startsWith(file + " is corrupt: "), is(true));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void rejectsLengthsBeyondTheEnd() throws IOException {
+    AutomatonFile.save(TDFAInterpreter.compileEagerly("a", 1000), file);
+    final ByteBuffer corrupt = ByteBuffer.wrap(Files.readAllBytes(file));
+    // The length of the regex, after magic and version: 1 << 20 as a varint.
+    corrupt.putInt(8, 0x80808001);
+    Files.write(file, corrupt.array());
+    try {
+      AutomatonFile.load(file);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage(), is(file + " is corrupt: regex length 1048576 is out of range."));
+    }
+  }
+
+  @Test
+  public void rejectsMoreRegistersThanTheFileNames() throws IOException {
+    AutomatonFile.save(TDFAInterpreter.compileEagerly("a", 1000), file);
+    final byte[] bytes = Files.readAllBytes(file);
+    // After magic, version, the regex, 4 literals and the class: 5 registers, as a varint.
+    final int at = 8 + 3 + 4 * 3 + 5;
+    assertThat(bytes[at], is((byte) 10));
+    final ByteBuffer corrupt = ByteBuffer.allocate(bytes.length + 4);
+    corrupt.put(bytes, 0, at);
+    corrupt.put(new byte[] { (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08 }); // 1 << 30
+    corrupt.put(bytes, at + 1, bytes.length - at - 1);
+    Files.write(file, corrupt.array());
+    try {
+      AutomatonFile.load(file);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage(), is(file + " is corrupt: register count 1073741824 is out of range."));
+    }
+  }
+}
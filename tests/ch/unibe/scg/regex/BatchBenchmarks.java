@@ -0,0 +1,94 @@
+package ch.unibe.scg.regex;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import ch.unibe.scg.regex.MatchBenchmarks.Corpus;
+
+/**
+ * How {@link TDFAInterpreter#matchAll(List, ForkJoinPool)} scales from 1 to N workers, on a warm
+ * pattern. Compare {@code matchAllParallel} against {@code matchAllSequential}, which is the loop
+ * that callers write without it.
+ *
+ * <p>The worker counts go up to 8. Pass {@code -p workers=1,2,...} to match the cores at hand.
+ */
+@SuppressWarnings("javadoc")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchBenchmarks {
+  /** The corpus is repeated, so that there is enough to split. */
+  final static int COPIES = 10;
+
+  @Param({ "ACCESS_LOG", "CSV" })
+  Corpus corpus;
+
+  @Param({ "1", "2", "4", "8" })
+  int workers;
+
+  List<String> inputs;
+  TDFAInterpreter interpreter;
+  ForkJoinPool pool;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    final List<String> lines = corpus.lines();
+    final String[] all = new String[lines.size() * COPIES];
+    for (int i = 0; i < all.length; i++) {
+      all[i] = lines.get(i % lines.size());
+    }
+    inputs = Arrays.asList(all);
+    interpreter = TDFAInterpreter.compile(corpus.regex);
+    pool = new ForkJoinPool(workers);
+    interpreter.matchAll(inputs, pool); // Warm up the automaton.
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public List<MatchResultTree> matchAllParallel() {
+    return interpreter.matchAll(inputs, pool);
+  }
+
+  @Benchmark
+  public MatchResultTree[] matchAllSequential() {
+    final TDFAMatcher matcher = interpreter.matcher();
+    final MatchResultTree[] ret = new MatchResultTree[inputs.size()];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = matcher.interpret(inputs.get(i));
+    }
+    return ret;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(BatchBenchmarks.class.getSimpleName())
+        .build()).run();
+  }
+}
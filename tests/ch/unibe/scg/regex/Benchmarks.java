@@ -9,6 +9,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -21,6 +22,8 @@ import com.google.caliper.Param;
 import com.google.caliper.api.Macrobenchmark;
 import com.google.caliper.runner.CaliperMain;
 
+import ch.unibe.scg.regex.TDFATransitionTable.NextState;
+
 @SuppressWarnings("javadoc")
 public final class Benchmarks {
   public static final class NonBackTracking extends Benchmark {
@@ -209,6 +212,208 @@ public final class Benchmarks {
     }
   }
 
+  /** Transition lookups only, on a table that already knows all transitions. */
+  public static final class TransitionTableBenchmark extends Benchmark {
+    final static String REGEX = "(([a-zA-Z]+)=([0-9a-zA-Z\\.:/]*)[,; ]*)+";
+    final static int LINES = 20000;
+    String input;
+    TDFATransitionTable dense;
+    SortedTable sorted;
+    int startState;
+
+    @Param
+    private Strategy strategy;
+
+    public enum Strategy {
+      SORTED {
+        @Override
+        int lookup(TransitionTableBenchmark b) {
+          int state = b.startState;
+          int sum = 0;
+          for (int i = 0; i < b.input.length(); i++) {
+            state = b.sorted.newState(state, b.input.charAt(i));
+            sum += state;
+          }
+          return sum;
+        }
+      },
+      DENSE {
+        @Override
+        int lookup(TransitionTableBenchmark b) {
+          NextState n = new NextState();
+          int state = b.startState;
+          int sum = 0;
+          for (int i = 0; i < b.input.length(); i++) {
+            b.dense.newStateAndInstructions(state, b.input.charAt(i), n);
+            state = n.nextState;
+            sum += state;
+          }
+          return sum;
+        }
+      };
+
+      abstract int lookup(TransitionTableBenchmark b);
+    }
+
+    /**
+     * The struct-of-arrays table with binary search over {@code (state, from)} that the dense
+     * table replaced. Kept as the baseline.
+     */
+    static final class SortedTable {
+      final char[] froms, tos;
+      final int[] states, newStates;
+      final int size;
+      int last;
+
+      SortedTable(Collection<TDFATransitionTable.Builder.Entry> entries) {
+        size = entries.size();
+        froms = new char[size];
+        tos = new char[size];
+        states = new int[size];
+        newStates = new int[size];
+        int i = 0;
+        for (TDFATransitionTable.Builder.Entry e : entries) {
+          froms[i] = e.from;
+          tos[i] = e.to;
+          states[i] = e.state;
+          newStates[i] = e.newState;
+          i++;
+        }
+      }
+
+      int newState(int state, char input) {
+        if (states[last] == state && froms[last] <= input && input <= tos[last]) {
+          return newStates[last];
+        }
+        if (size < 20) {
+          for (int y = 0; y < size; y++) {
+            if (states[y] == state && froms[y] <= input && input <= tos[y]) {
+              last = y;
+              return newStates[y];
+            }
+          }
+          return -1;
+        }
+        int l = 0;
+        int r = size - 1;
+        int x = -1;
+        while (r >= l) {
+          x = (l + r) >>> 1;
+          int cmp = Integer.compare(state, states[x]);
+          if (cmp == 0) {
+            cmp = Character.compare(input, froms[x]);
+          }
+          if (cmp < 0) {
+            r = x - 1;
+          } else if (cmp > 0) {
+            l = x + 1;
+          } else {
+            last = x;
+            return newStates[x];
+          }
+        }
+        for (int y = Math.max(0, x - 1); y <= Math.min(size - 1, x + 1); y++) {
+          if (states[y] == state && froms[y] <= input && input <= tos[y]) {
+            last = y;
+            return newStates[y];
+          }
+        }
+        return -1;
+      }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+      StringBuilder b = new StringBuilder();
+      for (int i = 0; i < LINES; i++) {
+        b.append("host=10.0.").append(i % 256).append('.').append(i % 7).append(", ");
+        b.append("path=/var/log/app").append(i % 13).append(".log; ");
+        b.append("time=").append(1000000 + i * 37).append(' ');
+      }
+      input = b.toString();
+
+      TDFAInterpreter interpreter = TDFAInterpreter.compile(REGEX);
+      if (interpreter.interpret(input).start() != 0) {
+        throw new AssertionError("Benchmark input must match.");
+      }
+      dense = interpreter.tdfaBuilder.build();
+      sorted = new SortedTable(interpreter.tdfaBuilder.transitions());
+      startState = interpreter.startTdfaState;
+    }
+
+    @Macrobenchmark
+    public int timeLookup() {
+      return strategy.lookup(this);
+    }
+  }
+
+  /** Instruction execution only, replaying the transitions of one match. */
+  public static final class InstructionBenchmark extends Benchmark {
+    /** The instructions of every transition taken, in order. */
+    Instruction[][] instructions;
+    /** The same, as opcodes. */
+    int[][] programs;
+    Memory memory;
+
+    @Param
+    private Strategy strategy;
+
+    public enum Strategy {
+      OBJECTS {
+        @Override
+        int replay(InstructionBenchmark b) {
+          b.memory.clear();
+          for (int pos = 0; pos < b.instructions.length; pos++) {
+            for (Instruction i : b.instructions[pos]) {
+              i.execute(pos, b.memory);
+            }
+          }
+          return b.memory.cur[0];
+        }
+      },
+      OPCODES {
+        @Override
+        int replay(InstructionBenchmark b) {
+          b.memory.clear();
+          for (int pos = 0; pos < b.programs.length; pos++) {
+            Program.execute(b.programs[pos], pos, b.memory);
+          }
+          return b.memory.cur[0];
+        }
+      };
+
+      abstract int replay(InstructionBenchmark b);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+      TransitionTableBenchmark tables = new TransitionTableBenchmark();
+      tables.setUp();
+      String input = tables.input;
+      TDFAInterpreter interpreter = TDFAInterpreter.compile(TransitionTableBenchmark.REGEX);
+      if (interpreter.interpret(input).start() != 0) {
+        throw new AssertionError("Benchmark input must match.");
+      }
+
+      TDFATransitionTable table = interpreter.table();
+      instructions = new Instruction[input.length()][];
+      programs = new int[input.length()][];
+      int state = interpreter.startTdfaState;
+      for (int pos = 0; pos < input.length(); pos++) {
+        TDFATransitionTable.Builder.Entry e = table.transition(state, input.charAt(pos));
+        instructions[pos] = e.instructions;
+        programs[pos] = e.program;
+        state = e.newState;
+      }
+      memory = new Memory(interpreter.registerCount());
+    }
+
+    @Macrobenchmark
+    public int timeReplay() {
+      return strategy.replay(this);
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     CaliperMain.main(ClassNameBenchmark.class, args);
   }
@@ -0,0 +1,70 @@
+package ch.unibe.scg.regex;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public final class CharClassifierTest {
+  @Test
+  public void classesInAscendingOrder() {
+    CharClassifier classifier = new CharClassifier(Arrays.asList(
+        InputRange.make('x', 'z'), InputRange.make('a', 'c')));
+    assertThat(classifier.size(), is(2));
+    assertThat(classifier.classOf('a'), is(0));
+    assertThat(classifier.classOf('c'), is(0));
+    assertThat(classifier.classOf('d'), is(-1));
+    assertThat(classifier.classOf('y'), is(1));
+    assertThat(classifier.range(1), is(InputRange.make('x', 'z')));
+  }
+
+  @Test
+  public void beyondLatin1() {
+    CharClassifier classifier = new CharClassifier(Arrays.asList(
+        InputRange.make('ÿ', 'Ā'), InputRange.make('ぁ', 'ゖ'),
+        InputRange.make('￿')));
+    assertThat(classifier.classOf('þ'), is(-1));
+    assertThat(classifier.classOf('ÿ'), is(0));
+    assertThat(classifier.classOf('Ā'), is(0));
+    assertThat(classifier.classOf('ā'), is(-1));
+    assertThat(classifier.classOf('぀'), is(-1));
+    assertThat(classifier.classOf('ぐ'), is(1));
+    assertThat(classifier.classOf('ゖ'), is(1));
+    assertThat(classifier.classOf('￾'), is(-1));
+    assertThat(classifier.classOf('￿'), is(2));
+    assertThat(classifier.isClass(InputRange.make('ぁ', 'ゖ')), is(true));
+    assertThat(classifier.isClass(InputRange.make('ぁ', 'ゕ')), is(false));
+  }
+
+  @Test
+  public void everyCharLikeALinearScan() {
+    Random random = new Random(1);
+    for (int round = 0; round < 20; round++) {
+      List<InputRange> ranges = new ArrayList<>();
+      int from = random.nextInt(600);
+      while (from <= Character.MAX_VALUE) {
+        // Mostly short classes, so that some blocks hold many boundaries, and some long ones.
+        int to = Math.min(Character.MAX_VALUE,
+            from + (random.nextBoolean() ? random.nextInt(4) : random.nextInt(3000)));
+        ranges.add(InputRange.make((char) from, (char) to));
+        from = to + 1 + random.nextInt(random.nextBoolean() ? 2 : 5000);
+      }
+      CharClassifier classifier = new CharClassifier(ranges);
+      for (int c = 0; c <= Character.MAX_VALUE; c++) {
+        int expected = -1;
+        for (int i = 0; i < ranges.size(); i++) {
+          if (ranges.get(i).getFrom() <= c && c <= ranges.get(i).getTo()) {
+            expected = i;
+          }
+        }
+        assertThat(classifier.classOf((char) c), is(expected));
+      }
+    }
+  }
+}
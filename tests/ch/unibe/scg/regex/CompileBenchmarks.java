@@ -0,0 +1,108 @@
+package ch.unibe.scg.regex;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compile time of large patterns. Determinizing all states up front makes the cost of
+ * interning and mapping DFA states visible, which lazy compilation spreads over the matches.
+ */
+@SuppressWarnings("javadoc")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompileBenchmarks {
+  /** Enough for all patterns below. */
+  final static int MAX_STATES = 100000;
+
+  public enum Patterns {
+    /** 200 keywords. Many states with few threads each. */
+    ALTERNATION {
+      @Override
+      String regex() {
+        final StringBuilder b = new StringBuilder("(");
+        for (int i = 0; i < 200; i++) {
+          if (i > 0) {
+            b.append('|');
+          }
+          b.append('w').append(Integer.toString(i * 7919, 36));
+        }
+        return b.append(")+").toString();
+      }
+    },
+    /** {@code (a?)^12 a^12}. Few states with many threads each. */
+    OPTIONALS {
+      @Override
+      String regex() {
+        final StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 12; i++) {
+          b.append("(a?)");
+        }
+        for (int i = 0; i < 12; i++) {
+          b.append('a');
+        }
+        return b.toString();
+      }
+    },
+    /** Nested captures under a star, as in the other benchmarks. */
+    KEY_VALUE {
+      @Override
+      String regex() {
+        return "(([a-zA-Z]+)=([0-9a-zA-Z\\.:/]*)[,; ]*)+";
+      }
+    };
+
+    abstract String regex();
+  }
+
+  @Param
+  Patterns pattern;
+
+  String regex;
+
+  @Setup
+  public void setUp() {
+    regex = pattern.regex();
+  }
+
+  @Benchmark
+  public TDFAInterpreter compileLazily() {
+    return TDFAInterpreter.compile(regex);
+  }
+
+  @Benchmark
+  public TDFAInterpreter compileEagerly() {
+    return TDFAInterpreter.compileEagerly(regex, MAX_STATES);
+  }
+
+  @Benchmark
+  public Pattern compileOracle() {
+    return Pattern.compile(regex);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(CompileBenchmarks.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
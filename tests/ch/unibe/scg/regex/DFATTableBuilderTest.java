@@ -3,6 +3,7 @@ package ch.unibe.scg.regex;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -17,13 +18,14 @@ public final class DFATTableBuilderTest {
 
   @Before
   public void setUp() {
-    builder = new TDFATransitionTable.Builder();
+    builder = new TDFATransitionTable.Builder(
+        new CharClassifier(Arrays.asList(InputRange.make('a', 'c'))));
   }
 
   @Test
   public void testBuilder() {
-    final DFAState q0 = new DFAState(null, new byte[] {1}, null);
-    final DFAState q1 = new DFAState(null, new byte[] {2}, null);
+    final DFAState q0 = new DFAState(null, 1, 0, null);
+    final DFAState q1 = new DFAState(null, 2, 0, null);
     final List<Instruction> empty = Collections.emptyList();
     builder.addTransition(q0, InputRange.make('a', 'c'), q1, empty);
 
@@ -34,4 +36,23 @@ public final class DFATTableBuilderTest {
     assertThat(n.nextState, is(1));
     assertThat(n.instructions.length, is(0));
   }
+
+  @Test
+  public void testGrowsInPlace() {
+    final List<Instruction> empty = Collections.emptyList();
+    final TDFATransitionTable before = builder.table();
+    DFAState from = new DFAState(null, 0, 0, null);
+    for (byte i = 1; i <= 20; i++) {
+      final DFAState to = new DFAState(null, i, 0, null);
+      builder.addTransition(from, InputRange.make('a', 'c'), to, empty);
+      from = to;
+    }
+
+    assertThat(builder.resizes(), is(1));
+    assertThat(before.transition(0, 'a').newState, is(1));
+    assertThat(before.transition(15, 'a') == null, is(true)); // Added after growing.
+    assertThat(builder.table().transition(15, 'a').newState, is(16));
+    assertThat(builder.table().transition(20, 'a') == null, is(true));
+    assertThat(builder.table().deoptimized(20), is(from));
+  }
 }
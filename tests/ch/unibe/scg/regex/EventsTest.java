@@ -0,0 +1,108 @@
+package ch.unibe.scg.regex;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public final class EventsTest {
+  @Before
+  public void setUp() {
+    State.resetCount();
+    History.resetCount();
+  }
+
+  @Test
+  public void lazyMatchRecordsEvents() throws IOException {
+    final List<RecordedEvent> events;
+    final MatchStats stats = new MatchStats();
+    try (Recording recording = new Recording()) {
+      recording.enable("ch.unibe.scg.regex.CompilePhase");
+      recording.enable("ch.unibe.scg.regex.NewState");
+      recording.enable("ch.unibe.scg.regex.TableMiss");
+      recording.start();
+      TDFAInterpreter interpreter = TDFAInterpreter.compile("((a+)b)+");
+      TDFAMatcher matcher = interpreter.matcher();
+      matcher.collectStats(stats);
+      matcher.interpret("aabab");
+      recording.stop();
+      events = read(recording);
+    }
+
+    final List<String> phases = new ArrayList<>();
+    int newStates = 0;
+    int misses = 0;
+    for (RecordedEvent e : events) {
+      assertThat(e.getString("pattern"), is("((a+)b)+"));
+      switch (e.getEventType().getName()) {
+        case "ch.unibe.scg.regex.CompilePhase":
+          phases.add(e.getString("phase"));
+          break;
+        case "ch.unibe.scg.regex.NewState":
+          newStates++;
+          break;
+        case "ch.unibe.scg.regex.TableMiss":
+          misses++;
+          break;
+        default:
+          break;
+      }
+    }
+    assertThat(phases.toString(), is("[parse, RegexToNFA.convert, RegexToNFA.convertUnanchored, "
+        + "Literals.of, TNFAToTDFA.make, TDFAInterpreter.new]"));
+    assertThat((long) misses, is(stats.determinizations()));
+    assertThat(misses > 0 && misses < 5, is(true)); // The second "ab" reuses the first.
+    assertThat(newStates > 0 && newStates <= misses, is(true));
+  }
+
+  @Test
+  public void utf8PhasesReportTheirOwnNfa() throws IOException {
+    final List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      recording.enable("ch.unibe.scg.regex.CompilePhase");
+      recording.start();
+      TDFAInterpreter.compileUtf8("(ü+)b");
+      recording.stop();
+      events = read(recording);
+    }
+
+    final List<String> phases = new ArrayList<>();
+    final Map<String, Integer> nfaStates = new HashMap<>();
+    for (RecordedEvent e : events) {
+      phases.add(e.getString("phase"));
+      nfaStates.put(e.getString("phase"), e.getInt("nfaStates"));
+    }
+    assertThat(phases.toString(), is("[parse, RegexToNFA.convert, RegexToNFA.convertUnanchored, "
+        + "TNFA.toUtf8, TNFA.toUtf8 (unanchored), Literals.of, TNFAToTDFA.make, "
+        + "TDFAInterpreter.new]"));
+    // The interpreter's DFA states are determinized from the anchored NFA.
+    assertThat(nfaStates.get("TDFAInterpreter.new"), is(nfaStates.get("TNFAToTDFA.make")));
+    assertThat(nfaStates.get("TNFA.toUtf8"), is(nfaStates.get("TNFAToTDFA.make")));
+    assertThat(nfaStates.get("TNFA.toUtf8 (unanchored)") > nfaStates.get("TNFA.toUtf8"),
+        is(true));
+  }
+
+  private static List<RecordedEvent> read(Recording recording) throws IOException {
+    final Path file = Files.createTempFile("events", ".jfr");
+    try {
+      recording.dump(file);
+      return RecordingFile.readAllEvents(file);
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package ch.unibe.scg.regex;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.unibe.scg.regex.MatchResultTree.TreeNode;
+
+@SuppressWarnings("javadoc")
+public final class FlatTreeTest {
+  @Before
+  public void setUp() {
+    State.resetCount();
+    History.resetCount();
+  }
+
+  @Test
+  public void preorderLinks() {
+    FlatTree tree = FlatTree.of(TDFAInterpreter.compile("(((a+)b)+c)+").interpret("abcaabaaabc"));
+    assertThat(tree.toString(),
+        is("(0 0 11 (1 0 3 (2 0 2 (3 0 1))) (1 3 11 (2 3 6 (3 3 5)) (2 6 10 (3 6 9))))"));
+    assertThat(tree.size(), is(9));
+    assertThat(tree.parent(0), is(FlatTree.NONE));
+    assertThat(tree.firstChild(0), is(1));
+    assertThat(tree.nextSibling(1), is(4));
+    assertThat(tree.nextSibling(4), is(FlatTree.NONE));
+    assertThat(tree.group(7), is(2));
+    assertThat(tree.parent(8), is(7));
+    assertThat(tree.firstChild(3), is(FlatTree.NONE));
+    assertThat(tree.span(4).toString(), is("aabaaabc"));
+    assertThat(tree.span(8).charAt(2), is('a'));
+  }
+
+  @Test
+  public void sameAsNodes() {
+    String[] inputs = { "Tom Lehrer,01;Alan Turing,23;", ",;x,;", "" };
+    TDFAInterpreter interpreter = TDFAInterpreter.compile("(([a-zA-Z ]*),([0-9]*);)*");
+    for (String input : inputs) {
+      MatchResultTree res = interpreter.interpret(input);
+      FlatTree tree = FlatTree.of(res);
+      StringBuilder nodes = new StringBuilder();
+      append(res.getRoot(), nodes);
+      assertThat(tree.toString(), is(nodes.toString()));
+    }
+  }
+
+  private static void append(TreeNode node, StringBuilder out) {
+    out.append('(').append(node.getGroup()).append(' ').append(node.start()).append(' ')
+        .append(node.end());
+    for (TreeNode child : node.getChildren()) {
+      out.append(' ');
+      append(child, out);
+    }
+    out.append(')');
+  }
+
+  @Test
+  public void spansDecodeBytes() {
+    MatchResultTree res = TDFAInterpreter.compileUtf8("(ü+)(.)").matcher().interpret(
+        ByteBuffer.wrap("üü€".getBytes(StandardCharsets.UTF_8)));
+    FlatTree tree = FlatTree.of(res);
+    assertThat(tree.span(1).toString(), is("üü"));
+    assertThat(tree.span(2).toString(), is("€"));
+    assertThat(tree.span(2).length(), is(3));
+    assertThat(res.getRoot().span().toString(), is("üü€"));
+  }
+
+  @Test
+  public void spansAreViews() {
+    StringBuilder input = new StringBuilder("xaab");
+    TreeNode node = TDFAInterpreter.compile("x(a+)b").interpret(input).getRoot().getChildren()
+        .iterator().next();
+    String copy = node.toString();
+    CharSequence span = node.span();
+    input.setCharAt(1, 'A'); // Shows through the view, not the copy.
+    assertThat(copy, is("aa"));
+    assertThat(span.toString(), is("Aa"));
+    assertThat(new StringBuilder().append(span).toString(), is("Aa"));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void streamedInputHasNoSpans() {
+    TDFAMatcher matcher = TDFAInterpreter.compile("(a+)").matcher();
+    matcher.feed("aa");
+    FlatTree.of(matcher.finish()).span(0);
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void noMatchHasNoTree() {
+    FlatTree.of(TDFAInterpreter.compile("a").interpret("b"));
+  }
+}
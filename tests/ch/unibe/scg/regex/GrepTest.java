@@ -0,0 +1,89 @@
+package ch.unibe.scg.regex;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public final class GrepTest {
+  private Path dir;
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+  @Before
+  public void setUp() throws IOException {
+    State.resetCount();
+    History.resetCount();
+    dir = Files.createTempDirectory("grep");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(dir)) {
+      for (Path p : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(p);
+      }
+    }
+  }
+
+  private int grep(String... args) {
+    return Grep.run(Arrays.asList(args), new PrintStream(out, true), new PrintStream(err, true));
+  }
+
+  private String out() {
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void printsTreesOfAllMatches() throws IOException {
+    final Path file = dir.resolve("a.txt");
+    Files.write(file, "x aab ab\nü ab".getBytes(StandardCharsets.UTF_8));
+
+    assertThat(grep("-j", "2", "((a+)b)+", dir.toString()), is(0));
+    assertThat(out(), is(file + ":(0 2 5 (1 2 5 (2 2 4)))\n"
+        + file + ":(0 6 8 (1 6 8 (2 6 7)))\n"
+        + file + ":(0 12 14 (1 12 14 (2 12 13)))\n"));
+  }
+
+  @Test
+  public void walksDirectoriesInParallel() throws IOException {
+    Files.createDirectory(dir.resolve("sub"));
+    for (int i = 0; i < 20; i++) {
+      Files.write(dir.resolve("sub").resolve("f" + i), ("id=" + i + ";").getBytes());
+    }
+    Files.write(dir.resolve("empty"), new byte[0]);
+
+    assertThat(grep("-j", "3", "id=([0-9]+)", dir.toString()), is(0));
+    final String[] lines = out().split("\n");
+    assertThat(lines.length, is(20));
+    for (String line : lines) {
+      final int i = Integer.parseInt(line.replaceAll(".*/f([0-9]+):.*", "$1"));
+      final int end = i < 10 ? 4 : 5;
+      assertThat(line.substring(line.indexOf(':') + 1),
+          is("(0 0 " + end + " (1 3 " + end + "))"));
+    }
+  }
+
+  @Test
+  public void exitStatus() throws IOException {
+    Files.write(dir.resolve("a"), "abc".getBytes());
+    assertThat(grep("x", dir.toString()), is(1));
+    assertThat(out(), is(""));
+    assertThat(grep("a", dir.resolve("missing").toString()), is(2));
+    assertThat(grep("-j"), is(2));
+  }
+}
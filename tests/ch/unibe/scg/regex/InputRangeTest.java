@@ -57,4 +57,13 @@ public final class InputRangeTest {
 				InputRange.make('b', 'd'));
 		assertThat(new InputRangeCleanup().cleanUp(start).toString(), is("[0x0-a, b-d, e-0xffff]"));
 	}
+
+	@Test
+	public void testSplitIntoDuplicate() {
+		List<InputRange> start = Arrays.asList(
+				InputRange.make('a', 'c'),
+				InputRange.make('b', 'b'),
+				InputRange.make('b', 'c'));
+		assertThat(new InputRangeCleanup().cleanUp(start).toString(), is("[a-a, b-b, c-c]"));
+	}
 }
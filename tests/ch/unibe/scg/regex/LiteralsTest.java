@@ -0,0 +1,71 @@
+package ch.unibe.scg.regex;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public final class LiteralsTest {
+  @Before
+  public void setUp() {
+    State.resetCount();
+    History.resetCount();
+  }
+
+  private static Literals of(String regex) {
+    return Literals.of(new ParserProvider().regexp().parse(regex));
+  }
+
+  @Test
+  public void prefixAndRequired() {
+    assertThat(of("ERROR (.*)").toString(),
+        is("exact null, prefix \"ERROR \", suffix \"\", required \"ERROR \""));
+    assertThat(of(".*?(com\\.acme\\.[a-z]+)").toString(),
+        is("exact null, prefix \"\", suffix \"\", required \"com.acme.\""));
+    assertThat(of("abc").toString(),
+        is("exact abc, prefix \"abc\", suffix \"abc\", required \"abc\""));
+    assertThat(of("x(ab)+y").toString(),
+        is("exact null, prefix \"xab\", suffix \"aby\", required \"xab\""));
+  }
+
+  @Test
+  public void unionsKeepWhatIsCommon() {
+    assertThat(of("abcd|abxd").toString(),
+        is("exact null, prefix \"ab\", suffix \"d\", required \"ab\""));
+    assertThat(of("a*|b").toString(),
+        is("exact null, prefix \"\", suffix \"\", required \"\""));
+    assertThat(of("(ab|ab)c").toString(),
+        is("exact abc, prefix \"abc\", suffix \"abc\", required \"abc\""));
+  }
+
+  @Test
+  public void optionalPartsAreNoLiterals() {
+    assertThat(of("a?b*c*?[d]").toString(),
+        is("exact null, prefix \"\", suffix \"d\", required \"d\""));
+    assertThat(of("[a-c]+").toString(),
+        is("exact null, prefix \"\", suffix \"\", required \"\""));
+  }
+
+  @Test
+  public void rejectsWithoutRunning() {
+    TDFAMatcher matcher = TDFAInterpreter.compile("ERROR ([a-z]+)").matcher();
+    MatchStats stats = new MatchStats();
+    matcher.collectStats(stats);
+    assertThat(matcher.interpret("INFO abc").toString(), is("NO_MATCH"));
+    assertThat(matcher.find("INFO abc", 0).toString(), is("NO_MATCH"));
+    assertThat(matcher.interpret("ERROR abc").toString(), is("0-8"));
+    assertThat(matcher.find("x ERROR abc ERROR d", 2).start(), is(2));
+    assertThat(matcher.find("x ERROR abc ERROR d", 3).start(), is(12));
+    assertThat(stats.rejected(), is(2L));
+    assertThat(stats.matches(), is(5L));
+
+    TDFAMatcher suffixed = TDFAInterpreter.compile("([a-z]+) done").matcher();
+    suffixed.collectStats(stats);
+    assertThat(suffixed.interpret("job done").toString(), is("0-7"));
+    assertThat(suffixed.interpret("job done twice").toString(), is("NO_MATCH"));
+    assertThat(suffixed.interpret(new StringBuilder("job done x")).toString(), is("NO_MATCH"));
+    assertThat(stats.rejected(), is(4L)); // Both contain " done", but don't end with it.
+  }
+}
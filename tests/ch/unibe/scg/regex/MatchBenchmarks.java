@@ -0,0 +1,223 @@
+package ch.unibe.scg.regex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compile time, cold matching and warm matching, each measured on its own, against
+ * {@link java.util.regex}. Every corpus is a list of lines, and every line is matched as a whole.
+ *
+ * <p>Cold matching starts from a freshly compiled pattern, so it includes the lazy determinization
+ * of all states the corpus reaches. Warm matching reuses a pattern that has already seen the
+ * corpus once, so it measures the transition table, or the compiled automaton, alone.
+ *
+ * <p>Run {@link #main} to get the allocation rates from the GC profiler alongside the times.
+ */
+@SuppressWarnings("javadoc")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchBenchmarks {
+  final static int LINES = 10000;
+
+  public enum Corpus {
+    /** The sources of this project. Declarations match, most other lines do not. */
+    JAVA_SOURCE("([ \t]*)(([a-z]+) )*([a-zA-Z_][a-zA-Z0-9_<>\\.]*) ([a-zA-Z_][a-zA-Z0-9_]*)(.*)") {
+      @Override
+      List<String> lines() throws IOException {
+        final List<String> ret = new ArrayList<>();
+        Files.walkFileTree(Paths.get("src"), new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            if (file.toString().endsWith(".java")) {
+              ret.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+            }
+            return super.visitFile(file, attrs);
+          }
+        });
+        return ret;
+      }
+    },
+    /** Apache common log format. Every tenth line is truncated, and does not match. */
+    ACCESS_LOG("([0-9\\.]+) ([a-z\\-]+) ([a-z\\-]+) \\[([0-9a-zA-Z/: \\+\\-]+)\\] "
+        + "\"([A-Z]+) ([a-zA-Z0-9/\\._\\-\\?=&]+) HTTP/([0-9\\.]+)\" ([0-9]+) ([0-9\\-]+)") {
+      @Override
+      List<String> lines() {
+        final String[] methods = { "GET", "POST", "HEAD" };
+        final List<String> ret = new ArrayList<>();
+        for (int i = 0; i < LINES; i++) {
+          final StringBuilder b = new StringBuilder();
+          b.append("10.0.").append(i % 256).append('.').append(i % 17);
+          b.append(i % 3 == 0 ? " - frank" : " - -");
+          b.append(" [10/Oct/2000:13:").append(10 + i % 50).append(':').append(10 + i % 49);
+          b.append(" -0700] \"").append(methods[i % methods.length]);
+          b.append(" /app/page").append(i % 101).append(".html?id=").append(i).append("&q=x");
+          b.append(" HTTP/1.").append(i % 2).append("\" ").append(i % 7 == 0 ? 404 : 200);
+          if (i % 10 != 9) {
+            b.append(' ').append(i * 31 % 10000);
+          }
+          ret.add(b.toString());
+        }
+        return ret;
+      }
+    },
+    /** Comma separated values, with some empty fields. */
+    CSV("(([a-zA-Z0-9 \\.\\-@]*),)*([a-zA-Z0-9 \\.\\-@]*)") {
+      @Override
+      List<String> lines() {
+        final List<String> ret = new ArrayList<>();
+        for (int i = 0; i < LINES; i++) {
+          ret.add(i + ",Person " + i % 389 + ",person" + i % 389 + "@example.com,"
+              + (i % 5 == 0 ? "" : "Street " + i % 97) + "," + (i % 1000) / 10.0);
+        }
+        return ret;
+      }
+    };
+
+    final String regex;
+
+    Corpus(String regex) {
+      this.regex = regex;
+    }
+
+    abstract List<String> lines() throws IOException;
+  }
+
+  @State(Scope.Benchmark)
+  public static class Input {
+    @Param
+    Corpus corpus;
+
+    String[] lines;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      final List<String> l = corpus.lines();
+      lines = l.toArray(new String[l.size()]);
+
+      // Both engines must agree, or the comparison is meaningless.
+      final TDFAMatcher ours = TDFAInterpreter.compile(corpus.regex).matcher();
+      final Matcher oracle = Pattern.compile(corpus.regex).matcher("");
+      for (String line : lines) {
+        if ((ours.interpret(line).start() == 0) != oracle.reset(line).matches()) {
+          throw new AssertionError("Engines disagree on " + line);
+        }
+      }
+    }
+  }
+
+  /** Patterns that have not matched anything yet. */
+  @State(Scope.Thread)
+  public static class Cold {
+    TDFAMatcher ours;
+    Matcher oracle;
+
+    @Setup(Level.Invocation)
+    public void setUp(Input input) {
+      ours = TDFAInterpreter.compile(input.corpus.regex).matcher();
+      oracle = Pattern.compile(input.corpus.regex).matcher("");
+    }
+  }
+
+  /** Patterns that have matched the whole corpus once. */
+  @State(Scope.Thread)
+  public static class Warm {
+    TDFAMatcher ours;
+    Matcher oracle;
+
+    @Setup(Level.Trial)
+    public void setUp(Input input) {
+      ours = TDFAInterpreter.compile(input.corpus.regex).matcher();
+      oracle = Pattern.compile(input.corpus.regex).matcher("");
+      matchAll(ours, input.lines);
+      matchAll(oracle, input.lines);
+    }
+  }
+
+  static int matchAll(TDFAMatcher matcher, String[] lines) {
+    int ret = 0;
+    for (String line : lines) {
+      ret += matcher.interpret(line).end();
+    }
+    return ret;
+  }
+
+  static int matchAll(Matcher matcher, String[] lines) {
+    int ret = 0;
+    for (String line : lines) {
+      if (matcher.reset(line).matches()) {
+        ret += matcher.end();
+      } else {
+        ret--;
+      }
+    }
+    return ret;
+  }
+
+  @Benchmark
+  public TDFAInterpreter compileOurs(Input input) {
+    return TDFAInterpreter.compile(input.corpus.regex);
+  }
+
+  @Benchmark
+  public Pattern compileOracle(Input input) {
+    return Pattern.compile(input.corpus.regex);
+  }
+
+  @Benchmark
+  public int coldMatchOurs(Input input, Cold cold) {
+    return matchAll(cold.ours, input.lines);
+  }
+
+  @Benchmark
+  public int coldMatchOracle(Input input, Cold cold) {
+    return matchAll(cold.oracle, input.lines);
+  }
+
+  @Benchmark
+  public int warmMatchOurs(Input input, Warm warm) {
+    return matchAll(warm.ours, input.lines);
+  }
+
+  @Benchmark
+  public int warmMatchOracle(Input input, Warm warm) {
+    return matchAll(warm.oracle, input.lines);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(MatchBenchmarks.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
@@ -0,0 +1,105 @@
+package ch.unibe.scg.regex;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public final class PatternCacheTest {
+  @Before
+  public void setUp() {
+    State.resetCount();
+    History.resetCount();
+  }
+
+  @Test
+  public void keepsWarmStates() {
+    PatternCache cache = new PatternCache(10);
+    TDFAInterpreter first = cache.compile("((a+)b)+");
+    first.interpret("aabab");
+    TDFAInterpreter second = cache.compile("((a+)b)+");
+
+    assertThat(second, is(sameInstance(first)));
+    long determinizations = second.stats().determinizations();
+    assertThat(second.interpret("aabab").toString(), is("0-4"));
+    assertThat(second.stats().determinizations(), is(determinizations));
+    assertThat(cache.toString(), is("1 patterns of at most 10, 1 hits, 1 misses, 0 evictions"));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    PatternCache cache = new PatternCache(2);
+    TDFAInterpreter a = cache.compile("a+");
+    cache.compile("b+");
+    cache.compile("a+");
+    cache.compile("c+"); // Drops b+.
+
+    assertThat(cache.size(), is(2));
+    assertThat(cache.evictions(), is(1L));
+    assertThat(cache.compile("a+"), is(sameInstance(a)));
+    long misses = cache.misses();
+    cache.compile("b+");
+    assertThat(cache.misses(), is(misses + 1));
+  }
+
+  @Test
+  public void forgetsErrors() {
+    PatternCache cache = new PatternCache(2);
+    for (int i = 0; i < 2; i++) {
+      try {
+        cache.compile("[^a]");
+      } catch (RuntimeException expected) {
+        // Negated sets aren't implemented.
+      }
+    }
+    assertThat(cache.misses(), is(2L));
+    assertThat(cache.size(), is(0));
+  }
+
+  @Test
+  public void compilesOnceForConcurrentCallers() throws Exception {
+    final PatternCache cache = new PatternCache(10);
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<TDFAInterpreter>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(executor.submit(new Callable<TDFAInterpreter>() {
+          @Override
+          public TDFAInterpreter call() throws InterruptedException {
+            start.await();
+            return cache.compile("(([a-zA-Z ]*),([0-9]+);)+");
+          }
+        }));
+      }
+      start.countDown();
+      TDFAInterpreter first = futures.get(0).get();
+      for (Future<TDFAInterpreter> f : futures) {
+        assertThat(f.get(), is(sameInstance(first)));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(cache.misses(), is(1L));
+    assertThat(cache.hits(), is(7L));
+  }
+
+  @Test
+  public void sharedIsShared() {
+    assertThat(PatternCache.shared(), is(sameInstance(PatternCache.shared())));
+    assertThat(PatternCache.shared().compile("x(y)"), is(not(sameInstance(
+        TDFAInterpreter.compile("x(y)")))));
+  }
+}
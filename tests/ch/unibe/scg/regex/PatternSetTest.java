@@ -0,0 +1,71 @@
+package ch.unibe.scg.regex;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public final class PatternSetTest {
+  static final String[] REGEXES = { "(([a-zA-Z ]*),([0-9]+);)+", "((a+)b)+", "([a-z]*)(,?)",
+      "(a|ab)(c|bcd)(d*)", "(((a+)b)+c)+" };
+  static final String[] INPUTS = { "Tom Lehrer,01;Alan Turing,23;", "aabab", "a,", "abcd",
+      "abcaabc", "ab", "", "a,;", "xyz" };
+
+  @Before
+  public void setUp() {
+    State.resetCount();
+    History.resetCount();
+  }
+
+  @Test
+  public void matchesLikeEachAlone() {
+    PatternSet set = PatternSet.compile(REGEXES);
+    PatternSet.Matcher matcher = set.matcher();
+    TDFAMatcher[] alone = new TDFAMatcher[REGEXES.length];
+    for (int i = 0; i < REGEXES.length; i++) {
+      alone[i] = TDFAInterpreter.compile(REGEXES[i]).matcher();
+    }
+
+    for (String input : INPUTS) {
+      List<MatchResultTree> results = matcher.interpret(input);
+      assertThat(results.size(), is(REGEXES.length));
+      for (int i = 0; i < REGEXES.length; i++) {
+        MatchResultTree expected = alone[i].interpret(input);
+        assertThat(positions(results.get(i)), is(positions(expected)));
+        assertThat(matcher.matching(input).get(i), is(expected instanceof RealMatchResult));
+      }
+    }
+  }
+
+  @Test
+  public void reportsMatchingPatterns() {
+    PatternSet set = PatternSet.compile("((a+)b)+", "(a|ab)(c|bcd)(d*)", "([a-z]*)(,?)");
+    assertThat(set.matching("abab").toString(), is("{0, 2}"));
+    assertThat(set.matching("abcd").toString(), is("{1, 2}"));
+    assertThat(set.matching("9").toString(), is("{}"));
+    assertThat(set.matcher().interpret("abab").get(0).getRoot().getChildren().toString(),
+        is("[ab, ab]"));
+  }
+
+  @Test
+  public void singlePass() {
+    PatternSet set = PatternSet.compile(REGEXES);
+    MatchStats stats = new MatchStats();
+    PatternSet.Matcher matcher = set.matcher();
+    matcher.collectStats(stats);
+    matcher.matching("Tom Lehrer,01;");
+    assertThat(stats.matches(), is(1L));
+    assertThat(stats.tableHits() + stats.determinizations(), is((long) "Tom Lehrer,01;".length()));
+  }
+
+  private static String positions(MatchResultTree res) {
+    if (res instanceof RealMatchResult) {
+      return ((RealMatchResult) res).matchPositionsDebugString();
+    }
+    return res.toString();
+  }
+}
@@ -0,0 +1,343 @@
+package ch.unibe.scg.regex;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.unibe.scg.regex.MatchResultTree.TreeNode;
+
+@SuppressWarnings("javadoc")
+public final class TDFAMatcherTest {
+  @Before
+  public void setUp() {
+    State.resetCount();
+    History.resetCount();
+  }
+
+  @Test
+  public void resultSurvivesReuse() {
+    TDFAMatcher matcher = TDFAInterpreter.compile("(((a+)b)+c)+").matcher();
+    RealMatchResult first = (RealMatchResult) matcher.interpret("abcaabaaabc");
+    String before = first.matchPositionsDebugString();
+    matcher.interpret("aaabcaaabcaabc");
+    assertThat(first.matchPositionsDebugString(), is(before));
+    assertThat(first.getRoot().getChildren().toString(), is("[abc, aabaaabc]"));
+  }
+
+  @Test
+  public void findAll() {
+    TDFAMatcher matcher = TDFAInterpreter.compile("((a+)b)+").matcher();
+    List<MatchResultTree> res = matcher.findAll("xxabyaabaaabzab");
+    assertThat(res.toString(), is("[2-3, 5-11, 13-14]"));
+    assertThat(res.get(1).getRoot().getChildren().toString(), is("[aab, aaab]"));
+    assertThat(res.get(1).start(2), is(8));
+  }
+
+  @Test
+  public void findLeftmostLongest() {
+    TDFAMatcher matcher = TDFAInterpreter.compile("b|abc").matcher();
+    assertThat(matcher.find("xabc", 0).toString(), is("1-3"));
+    assertThat(matcher.find("xabc", 2).toString(), is("2-2"));
+    assertThat(matcher.find("xabc", 3).toString(), is("NO_MATCH"));
+  }
+
+  @Test
+  public void streamInChunks() {
+    TDFAMatcher matcher = TDFAInterpreter.compile("(((a+)b)+c)+").matcher();
+    String whole = "abcaabaaabc";
+    RealMatchResult expected = (RealMatchResult) matcher.interpret(whole);
+    for (int chunkSize = 1; chunkSize <= whole.length(); chunkSize++) {
+      for (int i = 0; i < whole.length(); i += chunkSize) {
+        String chunk = whole.substring(i, Math.min(whole.length(), i + chunkSize));
+        assertThat(matcher.feed(chunk.toCharArray(), 0, chunk.length()), is(true));
+      }
+      RealMatchResult res = (RealMatchResult) matcher.finish();
+      assertThat(res.matchPositionsDebugString(), is(expected.matchPositionsDebugString()));
+    }
+
+    matcher.feed(CharBuffer.wrap("abca"));
+    MatchResultTree res = matcher.finish();
+    assertThat(res.toString(), is("NO_MATCH"));
+
+    matcher.feed("abc");
+    matcher.feed(CharBuffer.wrap("aabaaabc"));
+    res = matcher.finish();
+    assertThat(res.getRoot().getChildren().toString(), is("[0-2, 3-10]"));
+    assertThat(matcher.feed("x"), is(false));
+  }
+
+  @Test
+  public void sharedBetweenThreads() throws Exception {
+    final TDFAInterpreter interpreter = TDFAInterpreter.compile("(([a-zA-Z ]*),([0-9]+);)+");
+    final String[] inputs = { "Tom Lehrer,01;Alan Turing,23;", "a,1;", "xyz,99;b,0;", "a,;" };
+    final String[] expected = new String[inputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      expected[i] = TDFAInterpreter.compile("(([a-zA-Z ]*),([0-9]+);)+").interpret(inputs[i]).toString();
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            TDFAMatcher matcher = interpreter.matcher();
+            for (int round = 0; round < 200; round++) {
+              for (int i = 0; i < inputs.length; i++) {
+                if (!matcher.interpret(inputs[i]).toString().equals(expected[i])) {
+                  return false;
+                }
+              }
+            }
+            return true;
+          }
+        }));
+      }
+      for (Future<Boolean> f : futures) {
+        assertThat(f.get(), is(true));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void treeIsFoundAsVisited() {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      input.append(i % 2 == 0 ? "ab" : "aab");
+    }
+    MatchResultTree res = TDFAInterpreter.compile("((a+)b)+").interpret(input);
+    List<TreeNode> children = (List<TreeNode>) res.getRoot().getChildren();
+    assertThat(children.size(), is(1000));
+    assertThat(children.get(999).toString(), is("aab"));
+    assertThat(children.get(999).start(), is(2497));
+    assertThat(children.get(999).getChildren().toString(), is("[aa]"));
+    assertThat(children.get(998).getChildren().toString(), is("[a]"));
+    assertThat(children.get(1).getChildren() == children.get(1).getChildren(), is(true));
+  }
+
+  @Test
+  public void eagerNeverDeterminizes() {
+    TDFAInterpreter eager = TDFAInterpreter.compileEagerly("((a+)b)+", 1000);
+    assertThat(eager.isComplete(), is(true));
+    int states = eager.tdfaBuilder.mapping.deoptimized.size();
+    int searchStates = eager.searcher().tdfaBuilder.mapping.deoptimized.size();
+    TDFAMatcher matcher = eager.matcher();
+    assertThat(matcher.interpret("aabab").getRoot().getChildren().toString(), is("[aab, ab]"));
+    assertThat(matcher.interpret("aabba").toString(), is("NO_MATCH"));
+    assertThat(matcher.findAll("xxabyaabaaabzab").toString(), is("[2-3, 5-11, 13-14]"));
+    assertThat(eager.tdfaBuilder.mapping.deoptimized.size(), is(states));
+    assertThat(eager.searcher().tdfaBuilder.mapping.deoptimized.size(), is(searchStates));
+  }
+
+  @Test
+  public void eagerOverBudgetStaysLazy() {
+    TDFAInterpreter eager = TDFAInterpreter.compileEagerly("(((a+)b)+c)+", 2);
+    assertThat(eager.isComplete(), is(false));
+    RealMatchResult res = (RealMatchResult) eager.interpret("abcaabaaabc");
+    assertThat(res.getRoot().getChildren().toString(), is("[abc, aabaaabc]"));
+  }
+
+  @Test
+  public void compiledMatchesTable() {
+    TDFAInterpreter eager = TDFAInterpreter.compileEagerly("(((a+)b)+c)+", 1000);
+    assertThat(eager.compiled() != null, is(true));
+    TDFAInterpreter lazy = TDFAInterpreter.compile("(((a+)b)+c)+");
+    for (String input : new String[] { "abcaabaaabc", "abc", "aabbc", "abca", "", "aaabcab" }) {
+      MatchResultTree expected = lazy.interpret(input);
+      MatchResultTree actual = eager.interpret(input);
+      if (expected instanceof RealMatchResult) {
+        assertThat(((RealMatchResult) actual).matchPositionsDebugString(),
+            is(((RealMatchResult) expected).matchPositionsDebugString()));
+      } else {
+        assertThat(actual.toString(), is("NO_MATCH"));
+      }
+    }
+  }
+
+  @Test
+  public void statsSettle() {
+    TDFAInterpreter lazy = TDFAInterpreter.compile("((a+)b)+");
+    TDFAMatcher matcher = lazy.matcher();
+    MatchStats stats = new MatchStats();
+    matcher.collectStats(stats);
+    matcher.interpret("aabab");
+    assertThat(stats.matches(), is(1L));
+    assertThat(stats.tableHits() + stats.determinizations(), is(5L));
+    long determinized = lazy.stats().determinizations();
+    assertThat(determinized, is(stats.determinizations()));
+
+    stats.reset();
+    matcher.interpret("abaab");
+    assertThat(stats.determinizations(), is(0L));
+    assertThat(stats.tableHits(), is(5L));
+    assertThat(lazy.stats().determinizations(), is(determinized));
+    assertThat(lazy.stats().states(), is((long) lazy.tdfaBuilder.mapping.deoptimized.size()));
+
+    matcher.collectStats(null);
+    matcher.interpret("ab");
+    assertThat(stats.matches(), is(1L));
+  }
+
+  @Test
+  public void deadTransitionsAreNoDeterminizations() {
+    TDFAInterpreter lazy = TDFAInterpreter.compile("((a+)b)+");
+    TDFAMatcher matcher = lazy.matcher();
+    matcher.interpret("abb");
+    long determinized = lazy.stats().determinizations();
+    MatchStats stats = new MatchStats();
+    matcher.collectStats(stats);
+    for (int i = 0; i < 10; i++) {
+      assertThat(matcher.interpret("abb").toString(), is("NO_MATCH"));
+    }
+    assertThat(stats.determinizations(), is(0L));
+    assertThat(lazy.stats().determinizations(), is(determinized));
+  }
+
+  @Test
+  public void statsOfCompiled() {
+    TDFAInterpreter eager = TDFAInterpreter.compileEagerly("((a+)b)+", 1000);
+    assertThat(eager.isCompiled(), is(true));
+    TDFAMatcher matcher = eager.matcher();
+    MatchStats stats = new MatchStats();
+    matcher.collectStats(stats);
+    matcher.interpret("aabab");
+    assertThat(stats.compiledMatches(), is(1L));
+    assertThat(stats.tableHits(), is(0L));
+  }
+
+  @Test
+  public void flushesOverBudget() {
+    String regex = "(([a-zA-Z ]*),([0-9]+);)+";
+    TDFAInterpreter bounded = TDFAInterpreter.compile(regex);
+    bounded.setStateBudget(3);
+    TDFAInterpreter unbounded = TDFAInterpreter.compile(regex);
+    TDFAMatcher matcher = bounded.matcher();
+    for (String input : new String[] { "Tom Lehrer,01;Alan Turing,23;", "a,1;", "xyz,99;b,0;", "a,;" }) {
+      assertThat(matcher.interpret(input).toString(), is(unbounded.interpret(input).toString()));
+      assertThat(matcher.findAll("x" + input + "y").toString(),
+          is(unbounded.matcher().findAll("x" + input + "y").toString()));
+      assertThat(bounded.stateCount() <= 3, is(true));
+      assertThat(bounded.searcher().stateCount() <= 3, is(true));
+    }
+    assertThat(bounded.stats().flushes() > 0, is(true));
+    assertThat(unbounded.stats().flushes(), is(0L));
+  }
+
+  @Test
+  public void sharedBetweenThreadsWithFlushes() throws Exception {
+    final TDFAInterpreter interpreter = TDFAInterpreter.compile("(([a-zA-Z ]*),([0-9]+);)+");
+    interpreter.setStateBudget(4);
+    final String[] inputs = { "Tom Lehrer,01;Alan Turing,23;", "a,1;", "xyz,99;b,0;", "a,;" };
+    final String[] expected = new String[inputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      expected[i] = positions(TDFAInterpreter.compile("(([a-zA-Z ]*),([0-9]+);)+")
+          .interpret(inputs[i]));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            TDFAMatcher matcher = interpreter.matcher();
+            for (int round = 0; round < 200; round++) {
+              for (int i = 0; i < inputs.length; i++) {
+                if (!positions(matcher.interpret(inputs[i])).equals(expected[i])) {
+                  return false;
+                }
+              }
+            }
+            return true;
+          }
+        }));
+      }
+      for (Future<Boolean> f : futures) {
+        assertThat(f.get(), is(true));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertThat(interpreter.stats().flushes() > 0, is(true));
+  }
+
+  @Test
+  public void flushesReuseMemoryCells() {
+    String regex = "((a|b)*(c)(a|b|c)(a|b|c)(a|b|c))*";
+    TDFAInterpreter bounded = TDFAInterpreter.compile(regex);
+    bounded.setStateBudget(5);
+    TDFAInterpreter unbounded = TDFAInterpreter.compile(regex);
+    TDFAMatcher matcher = bounded.matcher();
+    Random random = new Random(42);
+    int maxRegisters = 0;
+    for (int round = 0; round < 500; round++) {
+      StringBuilder input = new StringBuilder();
+      for (int i = 0; i < 30; i++) {
+        input.append((char) ('a' + random.nextInt(3)));
+      }
+      assertThat(matcher.interpret(input).toString(), is(unbounded.interpret(input).toString()));
+      assertThat(matcher.findAll(input).toString(),
+          is(unbounded.matcher().findAll(input).toString()));
+      if (round == 50) {
+        maxRegisters = 2 * Math.max(bounded.registerCount(), bounded.searcher().registerCount());
+      }
+    }
+    assertThat(bounded.stats().flushes() > 100, is(true));
+    assertThat(bounded.registerCount() <= maxRegisters, is(true));
+    assertThat(bounded.searcher().registerCount() <= maxRegisters, is(true));
+  }
+
+  @Test
+  public void matchAllInOrder() {
+    final TDFAInterpreter interpreter = TDFAInterpreter.compile("(([a-zA-Z ]*),([0-9]+);)+");
+    final String[] samples = { "Tom Lehrer,01;Alan Turing,23;", "a,1;", "xyz,99;b,0;", "a,;" };
+    final List<String> inputs = new ArrayList<>();
+    final List<String> expected = new ArrayList<>();
+    final TDFAMatcher reference = TDFAInterpreter.compile("(([a-zA-Z ]*),([0-9]+);)+").matcher();
+    for (int i = 0; i < 1000; i++) {
+      inputs.add(samples[i % samples.length]);
+      expected.add(positions(reference.interpret(samples[i % samples.length])));
+    }
+
+    final List<String> actual = new ArrayList<>();
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      for (MatchResultTree res : interpreter.matchAll(inputs, pool)) {
+        actual.add(positions(res));
+      }
+    } finally {
+      pool.shutdown();
+    }
+    assertThat(actual, is(expected));
+
+    actual.clear();
+    for (Object res : interpreter.matchStream(inputs).toArray()) {
+      actual.add(positions((MatchResultTree) res));
+    }
+    assertThat(actual, is(expected));
+    assertThat(interpreter.matchAll(new ArrayList<String>()).size(), is(0));
+  }
+
+  private static String positions(MatchResultTree res) {
+    if (res instanceof RealMatchResult) {
+      return ((RealMatchResult) res).matchPositionsDebugString();
+    }
+    return res.toString();
+  }
+}
@@ -0,0 +1,80 @@
+package ch.unibe.scg.regex;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public final class TreeVisitorTest {
+  /** Writes events as {@code (group start ... end)}. */
+  static final class Printer implements TreeVisitor {
+    final StringBuilder out = new StringBuilder();
+
+    @Override
+    public void enterGroup(int group, int start) {
+      if (out.length() > 0 && out.charAt(out.length() - 1) != '(') {
+        out.append(' ');
+      }
+      out.append('(').append(group).append(' ').append(start);
+    }
+
+    @Override
+    public void exitGroup(int group, int end) {
+      out.append(' ').append(end).append(')');
+    }
+  }
+
+  @Before
+  public void setUp() {
+    State.resetCount();
+    History.resetCount();
+  }
+
+  @Test
+  public void documentOrder() {
+    Printer printer = new Printer();
+    TDFAMatcher matcher = TDFAInterpreter.compile("((a+)b)+").matcher();
+    assertThat(matcher.interpret("abaab", printer), is(true));
+    assertThat(printer.out.toString(), is("(0 0 (1 0 (2 0 1) 2) (1 2 (2 2 4) 5) 5)"));
+  }
+
+  @Test
+  public void sameAsFlatTree() {
+    String[] regexes = { "(((a+)b)+c)+", "(([a-zA-Z ]*),([0-9]*);)*", "(a|ab)(c|bcd)(d*)" };
+    String[] inputs = { "abcaabaaabc", "Tom Lehrer,01;Alan Turing,23;", ",;x,;", "abcd", "" };
+    for (String regex : regexes) {
+      TDFAMatcher matcher = TDFAInterpreter.compile(regex).matcher();
+      for (String input : inputs) {
+        Printer printer = new Printer();
+        MatchResultTree res = matcher.interpret(input);
+        assertThat(matcher.interpret(input, printer), is(res instanceof RealMatchResult));
+        if (res instanceof RealMatchResult) {
+          assertThat(printer.out.toString(), is(flat(FlatTree.of(res), 0)));
+        } else {
+          assertThat(printer.out.toString(), is(""));
+        }
+      }
+    }
+  }
+
+  /** Like {@link Printer}, from a flat tree. */
+  private static String flat(FlatTree tree, int node) {
+    StringBuilder ret = new StringBuilder("(" + tree.group(node) + " " + tree.start(node));
+    for (int c = tree.firstChild(node); c != FlatTree.NONE; c = tree.nextSibling(c)) {
+      ret.append(' ').append(flat(tree, c));
+    }
+    return ret.append(' ').append(tree.end(node)).append(')').toString();
+  }
+
+  @Test
+  public void streams() {
+    Printer printer = new Printer();
+    TDFAMatcher matcher = TDFAInterpreter.compile("(a+)(b+)").matcher();
+    matcher.feed("aa");
+    matcher.feed("abb");
+    assertThat(matcher.finish(printer), is(true));
+    assertThat(printer.out.toString(), is("(0 0 (1 0 3) (2 3 5) 5)"));
+  }
+}
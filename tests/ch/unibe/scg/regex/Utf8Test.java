@@ -0,0 +1,95 @@
+package ch.unibe.scg.regex;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public final class Utf8Test {
+  @Before
+  public void setUp() {
+    State.resetCount();
+    History.resetCount();
+  }
+
+  private static ByteBuffer utf8(String s) {
+    return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void sequences() {
+    assertThat(Utf8.sequences(InputRange.make('a', 'z')).toString(), is("[[a-z]]"));
+    assertThat(Utf8.sequences(InputRange.make('à', 'ÿ')).toString(),
+        is("[[" + InputRange.make((char) 0xC3) + ", 0xa0-0xbf]]"));
+    assertThat(Utf8.sequences(InputRange.make('\u007f', '\u0080')).toString(),
+        is("[[0x7f-0x7f], [" + InputRange.make((char) 0xC2) + ", 0x80-0x80]]"));
+    assertThat(Utf8.sequences(InputRange.EOS).size(), is(0));
+    // All of the BMP but surrogates, and all supplementary code points.
+    assertThat(Utf8.sequences(InputRange.ANY).size(), is(9));
+  }
+
+  @Test
+  public void matchesBytes() {
+    TDFAInterpreter interpreter = TDFAInterpreter.compileUtf8("([a-zäöü]+) (.*)");
+    TDFAMatcher matcher = interpreter.matcher();
+    ByteBuffer input = utf8("grüne aus zürich 😀");
+
+    MatchResultTree res = matcher.interpret(input);
+    assertThat(res.toString(), is("0-22")); // 😀 takes 4 bytes.
+    assertThat(res.getRoot().getChildren().toString(), is("[grüne, aus zürich 😀]"));
+    assertThat(res.end(1), is(5)); // The last byte of "grüne".
+    assertThat(Utf8.charOffset(input, res.start(2)), is(6));
+    assertThat(Utf8.charOffset(input, input.remaining()), is(19));
+    assertThat(matcher.interpret(utf8("GRÜSSE aus")).toString(), is("NO_MATCH"));
+  }
+
+  @Test
+  public void rangesAcrossLengths() {
+    TDFAMatcher matcher = TDFAInterpreter.compileUtf8("[a-ÿ]+").matcher();
+    assertThat(matcher.interpret(utf8("azéÿ")).toString(), is("0-5"));
+    assertThat(matcher.interpret(utf8("azĀ")).toString(), is("NO_MATCH"));
+    assertThat(matcher.interpret(ByteBuffer.wrap(new byte[] { 'a', (byte) 0xC3 })).toString(),
+        is("NO_MATCH"));
+  }
+
+  @Test
+  public void findsByteOffsets() {
+    TDFAMatcher matcher = TDFAInterpreter.compileUtf8("ü(b+)").matcher();
+    ByteBuffer input = utf8("äxübbü üb");
+    assertThat(matcher.findAll(input).toString(), is("[3-6, 10-12]"));
+    assertThat(matcher.find(input, 8).getRoot().getChildren().toString(), is("[b]"));
+  }
+
+  @Test
+  public void matchesMappedFiles() throws IOException {
+    Path file = Files.createTempFile("utf8", ".txt");
+    try {
+      Files.write(file, "straße,42;öl,7;".getBytes(StandardCharsets.UTF_8));
+      TDFAMatcher matcher = TDFAInterpreter.compileUtf8("(([a-zßö]*),([0-9]+);)+").matcher();
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        MatchResultTree res = matcher.interpret(mapped);
+        assertThat(res.getRoot().getChildren().toString(), is("[straße,42;, öl,7;]"));
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void onlyUtf8AutomataReadBytes() {
+    TDFAInterpreter.compile("a").matcher().interpret(utf8("a"));
+  }
+}